@@ -3,8 +3,10 @@ package com.example.CircuitHub;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration; // 👈 Add this import
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(exclude = { DataSourceAutoConfiguration.class }) // 👈 Exclude DataSource auto config
+@EnableScheduling
 public class CircuitHubApplication {
 
 	public static void main(String[] args) {
@@ -1,6 +1,7 @@
 package com.example.CircuitHub;
 
 import com.example.CircuitHub.security.FirebaseAuthenticationFilter;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -34,6 +35,9 @@ public class SecurityConfig {
                 session.sessionCreationPolicy(SessionCreationPolicy.STATELESS)
             )
             .authorizeHttpRequests(auth -> auth
+                // Async re-dispatch of streamed responses (the request was authorized already)
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
                 // Public endpoints
                 .requestMatchers("/api/health").permitAll() // Health check for monitoring services
                 .requestMatchers("/api/sync/user").permitAll()
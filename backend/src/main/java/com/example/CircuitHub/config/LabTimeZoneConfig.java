@@ -0,0 +1,20 @@
+package com.example.CircuitHub.config;
+
+import java.time.ZoneId;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class LabTimeZoneConfig {
+
+    /**
+     * Time zone of the lab's clock times ("3:00 PM" on legacy requests)
+     */
+    @Bean
+    public ZoneId labZone(@Value("${circuithub.lab.zone-id:Asia/Manila}") String zoneId) {
+        System.out.println("✅ Lab time zone: " + zoneId);
+        return ZoneId.of(zoneId);
+    }
+}
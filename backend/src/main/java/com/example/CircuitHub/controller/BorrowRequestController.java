@@ -1,10 +1,15 @@
 package com.example.CircuitHub.controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import com.example.CircuitHub.security.RoleAuthorization;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -15,25 +20,49 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.example.CircuitHub.dto.BorrowRequestSummary;
 import com.example.CircuitHub.model.BorrowRequest;
+import com.example.CircuitHub.service.ActiveBookingIndex;
+import com.example.CircuitHub.service.BorrowRequestArchiveService;
+import com.example.CircuitHub.service.BorrowRequestBackfillService;
+import com.example.CircuitHub.service.BorrowRequestExportService;
 import com.example.CircuitHub.service.BorrowRequestService;
+import com.example.CircuitHub.service.IdempotencyKeys;
 import com.example.CircuitHub.service.ItemAvailabilityService;
+import com.example.CircuitHub.service.OverdueMonitor;
 
 @RestController
 @RequestMapping("/api/requests")
 @CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"}, allowCredentials = "true")
 public class BorrowRequestController {
 
+    private static final int MAX_BULK_IDS = 500;
+
     private final BorrowRequestService borrowRequestService;
     private final ItemAvailabilityService availabilityService;
-
-    public BorrowRequestController(BorrowRequestService borrowRequestService, ItemAvailabilityService availabilityService) {
+    private final BorrowRequestBackfillService backfillService;
+    private final BorrowRequestExportService exportService;
+    private final OverdueMonitor overdueMonitor;
+    private final BorrowRequestArchiveService archiveService;
+
+    public BorrowRequestController(BorrowRequestService borrowRequestService,
+                                   ItemAvailabilityService availabilityService,
+                                   BorrowRequestBackfillService backfillService,
+                                   BorrowRequestExportService exportService,
+                                   OverdueMonitor overdueMonitor,
+                                   BorrowRequestArchiveService archiveService) {
         this.borrowRequestService = borrowRequestService;
         this.availabilityService = availabilityService;
+        this.backfillService = backfillService;
+        this.exportService = exportService;
+        this.overdueMonitor = overdueMonitor;
+        this.archiveService = archiveService;
     }
 
     // Get availability calendar for an item over a date range
@@ -53,11 +82,104 @@ public class BorrowRequestController {
         }
     }
 
+    // Get an item x day availability grid for several items (or "all") over a date range
+    @RoleAuthorization.AuthenticatedOnly
+    @GetMapping("/availability-grid")
+    public ResponseEntity<?> getAvailabilityGrid(
+            @RequestParam(defaultValue = "all") String itemIds,
+            @RequestParam String startDate,
+            @RequestParam String endDate) throws ExecutionException, InterruptedException {
+        try {
+            List<String> ids = new ArrayList<>();
+            if (!"all".equalsIgnoreCase(itemIds.trim())) {
+                for (String id : itemIds.split(",")) {
+                    if (!id.trim().isEmpty()) {
+                        ids.add(id.trim());
+                    }
+                }
+            }
+
+            Map<String, Object> grid = availabilityService.getAvailabilityGrid(ids, startDate, endDate);
+            if (grid.containsKey("error")) {
+                return ResponseEntity.badRequest().body(grid);
+            }
+            return ResponseEntity.ok(grid);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "error", "Error fetching availability grid: " + e.getMessage()
+            ));
+        }
+    }
+
+    // Get per-slot availability (15-minute lab slots) for an item over a few days
+    @RoleAuthorization.AuthenticatedOnly
+    @GetMapping("/availability-slots")
+    public ResponseEntity<?> getSlotAvailability(
+            @RequestParam String itemId,
+            @RequestParam String startDate,
+            @RequestParam(defaultValue = "1") int days) throws ExecutionException, InterruptedException {
+        try {
+            Map<String, Object> slots = availabilityService.getSlotAvailability(itemId, startDate, days);
+            if (slots.containsKey("error")) {
+                return ResponseEntity.badRequest().body(slots);
+            }
+            return ResponseEntity.ok(slots);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "error", "Error fetching slot availability: " + e.getMessage()
+            ));
+        }
+    }
+
+    // Find the earliest windows where the requested quantity of an item is free
+    @RoleAuthorization.AuthenticatedOnly
+    @GetMapping("/available-slots")
+    public ResponseEntity<?> findAvailableSlots(
+            @RequestParam String itemId,
+            @RequestParam(defaultValue = "1") int quantity,
+            @RequestParam int durationMinutes,
+            @RequestParam(required = false) String from,
+            @RequestParam(defaultValue = "14") int horizonDays,
+            @RequestParam(defaultValue = "5") int limit) throws ExecutionException, InterruptedException {
+        try {
+            Map<String, Object> slots = availabilityService.findAvailableSlots(
+                itemId, quantity, durationMinutes, from, horizonDays, limit
+            );
+            if (slots.containsKey("error")) {
+                return ResponseEntity.badRequest().body(slots);
+            }
+            return ResponseEntity.ok(slots);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "error", "Error searching available slots: " + e.getMessage()
+            ));
+        }
+    }
+
     // Check item availability (doesn't create a request, just validates)
     @RoleAuthorization.AuthenticatedOnly
     @PostMapping("/check-availability")
     public ResponseEntity<?> checkAvailability(@RequestBody Map<String, Object> requestData) throws ExecutionException, InterruptedException {
         try {
+            // Multi-item carts are checked in one pass
+            if (requestData.get("items") instanceof List) {
+                List<ItemAvailabilityService.ItemDemand> demands = new ArrayList<>();
+                for (Object line : (List<?>) requestData.get("items")) {
+                    if (line instanceof Map) {
+                        Map<?, ?> item = (Map<?, ?>) line;
+                        demands.add(new ItemAvailabilityService.ItemDemand(
+                            (String) item.get("id"),
+                            (String) item.get("name"),
+                            ActiveBookingIndex.parseQuantity(item.get("quantity"))
+                        ));
+                    }
+                }
+                ItemAvailabilityService.BatchAvailabilityResult batchResult = availabilityService.checkAvailability(
+                    demands, (String) requestData.get("startDate"), (String) requestData.get("endDate"), null
+                );
+                return ResponseEntity.ok(batchResult.toMap());
+            }
+
             String itemId = (String) requestData.get("itemId");
             Integer requestedQuantity = requestData.get("requestedQuantity") != null
                 ? ((Number) requestData.get("requestedQuantity")).intValue()
@@ -81,7 +203,9 @@ public class BorrowRequestController {
     // Students can create requests
     @RoleAuthorization.AuthenticatedOnly
     @PostMapping
-    public ResponseEntity<?> createRequest(@RequestBody BorrowRequest request) throws ExecutionException, InterruptedException {
+    public ResponseEntity<?> createRequest(@RequestBody BorrowRequest request,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey)
+            throws ExecutionException, InterruptedException {
         try {
             // Verify the user is creating a request for themselves
             Authentication auth = SecurityContextHolder.getContext().getAuthentication();
@@ -91,12 +215,20 @@ public class BorrowRequestController {
                 return ResponseEntity.status(403).body(Map.of("error", "You can only create requests for yourself"));
             }
 
-            BorrowRequest createdRequest = borrowRequestService.createRequest(request);
+            // Retries with the same Idempotency-Key get the original request back
+            BorrowRequest createdRequest = borrowRequestService.createRequest(request, idempotencyKey);
             return ResponseEntity.ok(Map.of(
                 "success", true,
                 "message", "Borrow request submitted successfully and pending teacher approval",
                 "request", createdRequest
             ));
+        } catch (IdempotencyKeys.KeyConflictException e) {
+            // Same Idempotency-Key sent with a different request
+            System.err.println("❌ Idempotency conflict: " + e.getMessage());
+            return ResponseEntity.status(409).body(Map.of(
+                "error", e.getMessage(),
+                "success", false
+            ));
         } catch (IllegalArgumentException e) {
             // Handle validation errors with 400 Bad Request
             System.err.println("❌ Validation error: " + e.getMessage());
@@ -126,7 +258,16 @@ public class BorrowRequestController {
     // Staff can view all requests, students see only their own
     @RoleAuthorization.AuthenticatedOnly
     @GetMapping
-    public ResponseEntity<?> getAllRequests(@RequestParam(required = false) String status) throws ExecutionException, InterruptedException {
+    public CompletableFuture<ResponseEntity<?>> getAllRequests(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String borrowerId,
+            @RequestParam(required = false) String teacherId,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "desc") String sort) {
+        // Read the caller before going async - the response completes on a Firestore callback thread
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String currentUserId = auth.getName();
         boolean isStaff = auth.getAuthorities().stream()
@@ -134,41 +275,66 @@ public class BorrowRequestController {
                           a.getAuthority().equals("ROLE_TEACHER") ||
                           a.getAuthority().equals("ROLE_LAB_ASSISTANT"));
 
-        List<BorrowRequest> requests;
+        // Paged listing: ?limit=N (&cursor=nextCursor from the previous page)
+        if (limit != null || cursor != null) {
+            try {
+                return borrowRequestService.getRequestsPageAsync(
+                    status != null && !status.equalsIgnoreCase("All") ? status : null,
+                    isStaff ? borrowerId : currentUserId,  // Students see only their own requests
+                    teacherId,
+                    from,
+                    to,
+                    !"asc".equalsIgnoreCase(sort),
+                    limit != null ? limit : 20,
+                    cursor
+                ).thenApply(page -> ResponseEntity.ok(page.toMap()));
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", e.getMessage())));
+            }
+        }
+
+        CompletableFuture<List<BorrowRequestSummary>> requests;
 
         if (isStaff) {
             if (status != null && !status.equalsIgnoreCase("All")) {
-                requests = borrowRequestService.getRequestsByStatus(status);
+                requests = borrowRequestService.getRequestsByStatusAsync(status);
             } else {
-                requests = borrowRequestService.getAllRequests();
+                requests = borrowRequestService.getAllRequestsAsync();
             }
         } else {
             // Students see only their own requests
-            requests = borrowRequestService.getRequestsByBorrowerId(currentUserId);
+            requests = borrowRequestService.getRequestSummariesByBorrowerIdAsync(currentUserId);
         }
 
-        return ResponseEntity.ok(requests);
+        return requests.thenApply(ResponseEntity::ok);
     }
 
     // Teachers can view pending teacher approvals
     @RoleAuthorization.AdminOrTeacher
     @GetMapping("/pending-teacher")
-    public ResponseEntity<?> getPendingTeacherApproval() throws ExecutionException, InterruptedException {
-        List<BorrowRequest> requests = borrowRequestService.getPendingTeacherApproval();
-        return ResponseEntity.ok(requests);
+    public CompletableFuture<ResponseEntity<?>> getPendingTeacherApproval() {
+        return borrowRequestService.getPendingTeacherApprovalAsync().thenApply(ResponseEntity::ok);
     }
 
     // Lab assistants can view pending lab approvals
     @RoleAuthorization.AdminOrLabAssistant
     @GetMapping("/pending-lab")
-    public ResponseEntity<?> getPendingLabApproval() throws ExecutionException, InterruptedException {
-        List<BorrowRequest> requests = borrowRequestService.getPendingLabApproval();
-        return ResponseEntity.ok(requests);
+    public CompletableFuture<ResponseEntity<?>> getPendingLabApproval() {
+        return borrowRequestService.getPendingLabApprovalAsync().thenApply(ResponseEntity::ok);
     }
 
+    // Closed requests moved out of the hot collection; students see only their own
     @RoleAuthorization.AuthenticatedOnly
-    @GetMapping("/{id}")
-    public ResponseEntity<?> getRequestById(@PathVariable String id) throws ExecutionException, InterruptedException {
+    @GetMapping("/archive")
+    public CompletableFuture<ResponseEntity<?>> getArchivedRequests(
+            @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String borrowerId,
+            @RequestParam(required = false) String teacherId,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "desc") String sort) {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String currentUserId = auth.getName();
         boolean isStaff = auth.getAuthorities().stream()
@@ -176,23 +342,61 @@ public class BorrowRequestController {
                           a.getAuthority().equals("ROLE_TEACHER") ||
                           a.getAuthority().equals("ROLE_LAB_ASSISTANT"));
 
-        BorrowRequest request = borrowRequestService.getRequestById(id);
-
-        if (request == null) {
-            return ResponseEntity.notFound().build();
+        try {
+            return borrowRequestService.getArchivedRequestsPageAsync(
+                status != null && !status.equalsIgnoreCase("All") ? status : null,
+                isStaff ? borrowerId : currentUserId,
+                teacherId,
+                from,
+                to,
+                !"asc".equalsIgnoreCase(sort),
+                limit,
+                cursor
+            ).thenApply(page -> ResponseEntity.ok(page.toMap()));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", e.getMessage())));
         }
+    }
 
-        // Users can only see their own requests unless they're staff
-        if (!isStaff && !currentUserId.equals(request.getBorrowerId())) {
-            return ResponseEntity.status(403).body(Map.of("error", "Access denied"));
-        }
+    // Staff can see borrowed items that are past their return time
+    @RoleAuthorization.StaffOnly
+    @GetMapping("/overdue")
+    public CompletableFuture<ResponseEntity<?>> getOverdueRequests() {
+        return overdueMonitor.getOverdueRequestsAsync().thenApply(ResponseEntity::ok);
+    }
 
-        return ResponseEntity.ok(request);
+    @RoleAuthorization.AuthenticatedOnly
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<?>> getRequestById(@PathVariable String id) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String currentUserId = auth.getName();
+        boolean isStaff = auth.getAuthorities().stream()
+            .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN") ||
+                          a.getAuthority().equals("ROLE_TEACHER") ||
+                          a.getAuthority().equals("ROLE_LAB_ASSISTANT"));
+
+        // Closed requests may have been moved to the archive tier
+        return borrowRequestService.getRequestByIdAsync(id)
+                .thenCompose(request -> request != null
+                        ? CompletableFuture.completedFuture(request)
+                        : borrowRequestService.getArchivedRequestByIdAsync(id))
+                .thenApply(request -> {
+                    if (request == null) {
+                        return ResponseEntity.notFound().build();
+                    }
+
+                    // Users can only see their own requests unless they're staff
+                    if (!isStaff && !currentUserId.equals(request.getBorrowerId())) {
+                        return ResponseEntity.status(403).body(Map.of("error", "Access denied"));
+                    }
+
+                    return ResponseEntity.ok(request);
+                });
     }
 
     @RoleAuthorization.AuthenticatedOnly
     @GetMapping("/user/{userId}")
-    public ResponseEntity<?> getUserRequests(@PathVariable String userId) throws ExecutionException, InterruptedException {
+    public CompletableFuture<ResponseEntity<?>> getUserRequests(@PathVariable String userId) {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String currentUserId = auth.getName();
         boolean isStaff = auth.getAuthorities().stream()
@@ -202,16 +406,17 @@ public class BorrowRequestController {
 
         // Users can only view their own requests unless they're staff
         if (!isStaff && !currentUserId.equals(userId)) {
-            return ResponseEntity.status(403).body(Map.of("error", "Access denied"));
+            return CompletableFuture.completedFuture(ResponseEntity.status(403).body(Map.of("error", "Access denied")));
         }
 
-        List<BorrowRequest> userRequests = borrowRequestService.getRequestsByBorrowerId(userId);
-        return ResponseEntity.ok(userRequests);
+        return borrowRequestService.getRequestsByBorrowerIdAsync(userId).thenApply(ResponseEntity::ok);
     }
 
     @RoleAuthorization.AuthenticatedOnly
     @GetMapping("/user/{userId}/history")
-    public ResponseEntity<?> getUserBorrowHistory(@PathVariable String userId) throws ExecutionException, InterruptedException {
+    public ResponseEntity<?> getUserBorrowHistory(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "false") boolean includeArchived) throws ExecutionException, InterruptedException {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String currentUserId = auth.getName();
         boolean isStaff = auth.getAuthorities().stream()
@@ -223,10 +428,53 @@ public class BorrowRequestController {
             return ResponseEntity.status(403).body(Map.of("error", "Access denied"));
         }
 
-        Map<String, Object> history = borrowRequestService.getUserBorrowHistory(userId);
+        Map<String, Object> history = borrowRequestService.getUserBorrowHistory(userId, includeArchived);
         return ResponseEntity.ok(history);
     }
 
+    // Teacher approves or denies several requests at once
+    @RoleAuthorization.AdminOrTeacher
+    @PostMapping("/bulk/teacher-decision")
+    public ResponseEntity<?> bulkTeacherDecision(@RequestBody Map<String, Object> decisionData) throws ExecutionException, InterruptedException {
+        return bulkDecision(decisionData, "teacher", "teacherName");
+    }
+
+    // Lab assistant approves or denies several teacher-approved requests at once
+    @RoleAuthorization.AdminOrLabAssistant
+    @PostMapping("/bulk/lab-decision")
+    public ResponseEntity<?> bulkLabDecision(@RequestBody Map<String, Object> decisionData) throws ExecutionException, InterruptedException {
+        return bulkDecision(decisionData, "lab", "labAssistantName");
+    }
+
+    private ResponseEntity<?> bulkDecision(Map<String, Object> decisionData, String stage, String nameField)
+            throws ExecutionException, InterruptedException {
+        String action = (String) decisionData.get("action");
+        String actorName = (String) decisionData.get(nameField);
+
+        if (!(decisionData.get("ids") instanceof List) || ((List<?>) decisionData.get("ids")).isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "A non-empty ids list is required"));
+        }
+        if (!"approve".equals(action) && !"deny".equals(action)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Action must be approve or deny"));
+        }
+        if ("approve".equals(action) && actorName == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", nameField + " is required to approve"));
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (Object id : (List<?>) decisionData.get("ids")) {
+            if (id instanceof String && !((String) id).isEmpty()) {
+                ids.add((String) id);
+            }
+        }
+        if (ids.size() > MAX_BULK_IDS) {
+            return ResponseEntity.badRequest().body(Map.of("error", "At most " + MAX_BULK_IDS + " requests per call"));
+        }
+
+        Map<String, Object> result = borrowRequestService.bulkDecide(ids, stage, "approve".equals(action), actorName);
+        return ResponseEntity.ok(result);
+    }
+
     // Only teachers can approve at teacher level
     @RoleAuthorization.AdminOrTeacher
     @PutMapping("/{id}/teacher-approve")
@@ -312,11 +560,81 @@ public class BorrowRequestController {
                 "message", message,
                 "request", updatedRequest
             ));
+        } catch (IllegalStateException e) {
+            // Transition not allowed, or the request kept changing underneath us
+            return ResponseEntity.status(409).body(Map.of(
+                "error", e.getMessage()
+            ));
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    // Stream borrow history as NDJSON or CSV (admin export)
+    @RoleAuthorization.AdminOnly
+    @GetMapping("/export")
+    public ResponseEntity<?> exportRequests(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to) {
+        String exportFormat = format.toLowerCase();
+        String exportStatus = status != null && !status.equalsIgnoreCase("All") ? status : null;
+        try {
+            exportService.validate(exportFormat, from, to);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        boolean csv = "csv".equals(exportFormat);
+        StreamingResponseBody body = out -> {
+            try {
+                exportService.export(out, exportFormat, exportStatus, from, to);
+            } catch (ExecutionException e) {
+                throw new IOException("Export failed: " + e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            }
+        };
+
+        return ResponseEntity.ok()
+            .contentType(csv ? MediaType.parseMediaType("text/csv") : MediaType.APPLICATION_NDJSON)
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"borrow-requests." + (csv ? "csv" : "ndjson") + "\"")
+            .body(body);
+    }
+
+    // Admin: move closed requests past the retention age to the archive tier now
+    @RoleAuthorization.AdminOnly
+    @PostMapping("/admin/archive")
+    public ResponseEntity<?> runArchive(@RequestParam(defaultValue = "3000") int maxDocuments) {
+        try {
+            return ResponseEntity.ok(archiveService.runArchive(maxDocuments));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body(Map.of("error", "Archive failed: " + e.getMessage()));
+        }
+    }
+
+    // Admin: fill normalized fields on existing requests (resumable, runs in pages)
+    @RoleAuthorization.AdminOnly
+    @PostMapping("/admin/backfill")
+    public ResponseEntity<?> runBackfill(
+            @RequestParam(defaultValue = "false") boolean restart,
+            @RequestParam(defaultValue = "3000") int maxDocuments) {
+        try {
+            return ResponseEntity.ok(backfillService.runBackfill(restart, maxDocuments));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body(Map.of("error", "Backfill failed: " + e.getMessage()));
+        }
+    }
+
     // Staff or request owner can delete
     @RoleAuthorization.AuthenticatedOnly
     @DeleteMapping("/{id}")
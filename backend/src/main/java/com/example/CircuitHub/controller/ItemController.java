@@ -4,9 +4,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import com.example.CircuitHub.security.RoleAuthorization;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -16,16 +19,21 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.example.CircuitHub.model.Item;
+import com.example.CircuitHub.service.CounterService;
+import com.example.CircuitHub.service.FirestoreFutures;
+import com.example.CircuitHub.service.ItemCatalogCache;
 import com.example.CircuitHub.service.ItemService;
 import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
 import com.google.firebase.cloud.FirestoreClient;
 
 @RestController
@@ -34,9 +42,13 @@ import com.google.firebase.cloud.FirestoreClient;
 public class ItemController {
 
     private final ItemService itemService;
+    private final ItemCatalogCache catalogCache;
+    private final CounterService counterService;
 
-    public ItemController(ItemService itemService) {
+    public ItemController(ItemService itemService, ItemCatalogCache catalogCache, CounterService counterService) {
         this.itemService = itemService;
+        this.catalogCache = catalogCache;
+        this.counterService = counterService;
     }
 
     // Admin and Lab Assistant can add items
@@ -83,8 +95,10 @@ public class ItemController {
             dbItemData.put("createdAt", LocalDateTime.now().toString());
             dbItemData.put("imagePath", "https://placehold.co/150");
             dbItemData.put("quantity", quantity);
+            dbItemData.put("totalQuantity", quantity);
 
             FirestoreClient.getFirestore().collection("items").document(itemId).set(dbItemData).get();
+            catalogCache.invalidate();
 
             Map<String, Object> response = new HashMap<>(dbItemData);
             return ResponseEntity.ok(response);
@@ -98,43 +112,78 @@ public class ItemController {
     }
 
     // Everyone can view items (authenticated users)
+    // Answers If-None-Match with 304 while the catalog is unchanged (no Firestore read, no body)
     @RoleAuthorization.AuthenticatedOnly
     @GetMapping
-    public ResponseEntity<List<Item>> getAllItems() {
-        try {
-            List<Item> items = itemService.getAllItems();
-            return ResponseEntity.ok(items);
-        } catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(500).build();
+    public CompletableFuture<ResponseEntity<List<Item>>> getAllItems(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        String currentETag = catalogCache.currentETag();
+        if (currentETag != null && eTagMatches(ifNoneMatch, currentETag)) {
+            return CompletableFuture.completedFuture(notModified(currentETag));
         }
-    }
 
-    @RoleAuthorization.AuthenticatedOnly
-    @GetMapping("/{id}")
-    public ResponseEntity<?> getItemById(@PathVariable String id) {
-        try {
-            System.out.println("Fetching item with ID: " + id);
+        return catalogCache.getCatalog()
+                .thenApply(catalog -> {
+                    if (eTagMatches(ifNoneMatch, catalog.getETag())) {
+                        return notModified(catalog.getETag());
+                    }
+                    return ResponseEntity.ok()
+                            .eTag(catalog.getETag())
+                            .cacheControl(CacheControl.noCache().cachePrivate())
+                            .body(catalog.getItems());
+                })
+                .exceptionally(e -> {
+                    FirestoreFutures.rootCause(e).printStackTrace();
+                    return ResponseEntity.status(500).build();
+                });
+    }
 
-            DocumentReference docRef = FirestoreClient.getFirestore().collection("items").document(id);
-            ApiFuture<DocumentSnapshot> future = docRef.get();
-            DocumentSnapshot document = future.get();
+    private ResponseEntity<List<Item>> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .build();
+    }
 
-            if (!document.exists()) {
-                return ResponseEntity.notFound().build();
+    /**
+     * If-None-Match may list several (possibly weak) tags, or "*"
+     */
+    static boolean eTagMatches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
             }
-
-            Map<String, Object> itemData = document.getData();
-            if (itemData != null) {
-                itemData.put("id", document.getId());
-                return ResponseEntity.ok(itemData);
-            } else {
-                return ResponseEntity.notFound().build();
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(500).body(Map.of("error", e.getMessage()));
         }
+        return false;
+    }
+
+    @RoleAuthorization.AuthenticatedOnly
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<?>> getItemById(@PathVariable String id) {
+        System.out.println("Fetching item with ID: " + id);
+
+        DocumentReference docRef = FirestoreClient.getFirestore().collection("items").document(id);
+        return FirestoreFutures.toCompletable(docRef.get())
+                .<ResponseEntity<?>>thenApply(document -> {
+                    Map<String, Object> itemData = document.exists() ? document.getData() : null;
+                    if (itemData == null) {
+                        return ResponseEntity.notFound().build();
+                    }
+                    itemData.put("id", document.getId());
+                    return ResponseEntity.ok(itemData);
+                })
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.rootCause(e);
+                    cause.printStackTrace();
+                    return ResponseEntity.status(500).body(Map.of("error", String.valueOf(cause.getMessage())));
+                });
     }
 
     // Only admin and lab assistant can update items
@@ -157,26 +206,52 @@ public class ItemController {
             if (itemData.containsKey("name")) updates.put("name", itemData.get("name"));
             if (itemData.containsKey("description")) updates.put("description", itemData.get("description"));
             if (itemData.containsKey("condition")) updates.put("condition", itemData.get("condition"));
+            if (itemData.containsKey("imagePath")) updates.put("imagePath", itemData.get("imagePath"));
+
+            // On-hand stock includes unfolded counter shards, so quantity changes are written as increments
+            long onHand = counterService.getItemQuantity(document);
+            long quantityChange = 0;
+            long maintenanceChange = 0;  // Units going into (-1) or coming back from (+1) maintenance
             if (itemData.containsKey("status")) {
                 String newStatus = itemData.get("status");
                 updates.put("status", newStatus);
 
-                Long currentQuantity = document.getLong("quantity");
-                if (currentQuantity != null) {
-                    if ((newStatus.equalsIgnoreCase("Borrowed") || newStatus.equalsIgnoreCase("Maintenance"))
-                            && currentQuantity > 0) {
-                        updates.put("quantity", currentQuantity - 1);
+                if ((newStatus.equalsIgnoreCase("Borrowed") || newStatus.equalsIgnoreCase("Maintenance"))
+                        && onHand > 0) {
+                    quantityChange = -1;
+                    if (newStatus.equalsIgnoreCase("Maintenance")) {
+                        maintenanceChange = -1;
                     }
+                }
 
-                    if (newStatus.equalsIgnoreCase("Available") &&
-                            (prevStatus.equalsIgnoreCase("Borrowed") || prevStatus.equalsIgnoreCase("Maintenance"))) {
-                        updates.put("quantity", currentQuantity + 1);
+                if (newStatus.equalsIgnoreCase("Available")
+                        && ("Borrowed".equalsIgnoreCase(prevStatus) || "Maintenance".equalsIgnoreCase(prevStatus))) {
+                    quantityChange = 1;
+                    if ("Maintenance".equalsIgnoreCase(prevStatus)) {
+                        maintenanceChange = 1;
                     }
                 }
             }
-            if (itemData.containsKey("quantity")) updates.put("quantity", Integer.parseInt(itemData.get("quantity")));
+            boolean quantityEdited = itemData.containsKey("quantity");
+            if (quantityEdited) {
+                quantityChange = Integer.parseInt(itemData.get("quantity")) - onHand;
+            }
+            if (quantityEdited || quantityChange != 0) {
+                updates.put("quantity", FieldValue.increment(quantityChange));
+            }
+
+            // Owned units (totalQuantity) change with explicit quantity edits and maintenance, never with lending
+            Long totalQuantity = document.getLong("totalQuantity");
+            if (totalQuantity != null) {
+                if (quantityEdited) {
+                    updates.put("totalQuantity", Math.max(0, totalQuantity + quantityChange));
+                } else if (maintenanceChange != 0) {
+                    updates.put("totalQuantity", Math.max(0, totalQuantity + maintenanceChange));
+                }
+            }
 
             docRef.update(updates).get();
+            catalogCache.invalidate();
 
             ApiFuture<DocumentSnapshot> updatedFuture = docRef.get();
             DocumentSnapshot updatedDoc = updatedFuture.get();
@@ -196,6 +271,7 @@ public class ItemController {
         try {
             System.out.println("Deleting item: " + id);
             FirestoreClient.getFirestore().collection("items").document(id).delete().get();
+            catalogCache.invalidate();
             return ResponseEntity.ok(Map.of("success", true, "message", "Item deleted successfully"));
         } catch (Exception e) {
             e.printStackTrace();
@@ -4,6 +4,7 @@ import com.example.CircuitHub.dto.FirebaseUserDto;
 import com.example.CircuitHub.dto.ProfileUpdateDto;
 import com.example.CircuitHub.model.User;
 import com.example.CircuitHub.security.RoleAuthorization;
+import com.example.CircuitHub.service.FirestoreFutures;
 import com.example.CircuitHub.service.UserService;
 import com.google.firebase.cloud.FirestoreClient;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +16,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
@@ -43,10 +45,11 @@ public class UserController {
     }
 
     @GetMapping("/sync/get-by-uid")
-    public ResponseEntity<User> getUserByUid(@RequestParam String uid) {
-        return userService.getUserByUid(uid)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    public CompletableFuture<ResponseEntity<User>> getUserByUid(@RequestParam String uid) {
+        return userService.getUserByUidAsync(uid)
+                .thenApply(user -> user
+                        .map(ResponseEntity::ok)
+                        .orElse(ResponseEntity.notFound().build()));
     }
 
     @GetMapping("/sync/test-firestore")
@@ -81,31 +84,33 @@ public class UserController {
 
     @RoleAuthorization.AuthenticatedOnly
     @GetMapping("/users/{uid}/profile")
-    public ResponseEntity<?> getUserProfile(@PathVariable String uid) {
-        try {
-            System.out.println("GET Profile requested for user: " + uid);
-            
-            // Check if user is accessing their own profile or is admin
-            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-            String currentUserId = auth.getName();
-            boolean isAdmin = auth.getAuthorities().stream()
-                .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
-            
-            if (!currentUserId.equals(uid) && !isAdmin) {
-                return ResponseEntity.status(403).body(Map.of("error", "Access denied"));
-            }
-            
-            return userService.getUserByUid(uid)
-                    .map(user -> {
-                        System.out.println("Found user: " + user.getFirstName() + " " + user.getLastName());
-                        return ResponseEntity.ok(user);
-                    })
-                    .orElse(ResponseEntity.notFound().build());
-        } catch (Exception e) {
-            System.err.println("Error fetching profile: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(500).body(Map.of("error", "Failed to fetch profile: " + e.getMessage()));
+    public CompletableFuture<ResponseEntity<?>> getUserProfile(@PathVariable String uid) {
+        System.out.println("GET Profile requested for user: " + uid);
+
+        // Check if user is accessing their own profile or is admin
+        // (read the security context here, before the response completes on a Firestore thread)
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String currentUserId = auth.getName();
+        boolean isAdmin = auth.getAuthorities().stream()
+            .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
+
+        if (!currentUserId.equals(uid) && !isAdmin) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(403).body(Map.of("error", "Access denied")));
         }
+
+        return userService.getUserByUidAsync(uid)
+                .<ResponseEntity<?>>thenApply(found -> found
+                        .<ResponseEntity<?>>map(user -> {
+                            System.out.println("Found user: " + user.getFirstName() + " " + user.getLastName());
+                            return ResponseEntity.ok(user);
+                        })
+                        .orElse(ResponseEntity.notFound().build()))
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.rootCause(e);
+                    System.err.println("Error fetching profile: " + cause.getMessage());
+                    cause.printStackTrace();
+                    return ResponseEntity.status(500).body(Map.of("error", "Failed to fetch profile: " + cause.getMessage()));
+                });
     }
 
     @RoleAuthorization.AuthenticatedOnly
@@ -174,29 +179,29 @@ public class UserController {
 
 //    @RoleAuthorization.AuthenticatedOnly
     @GetMapping("/users/teachers")
-    public ResponseEntity<?> getAllTeachers() {
-        try {
-            System.out.println("GET All teachers requested");
-            java.util.List<User> teachers = userService.getAllTeachers();
-            return ResponseEntity.ok(teachers);
-        } catch (Exception e) {
-            System.err.println("Error fetching teachers: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(500).body(Map.of("error", "Failed to fetch teachers: " + e.getMessage()));
-        }
+    public CompletableFuture<ResponseEntity<?>> getAllTeachers() {
+        System.out.println("GET All teachers requested");
+        return userService.getAllTeachersAsync()
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.rootCause(e);
+                    System.err.println("Error fetching teachers: " + cause.getMessage());
+                    cause.printStackTrace();
+                    return ResponseEntity.status(500).body(Map.of("error", "Failed to fetch teachers: " + cause.getMessage()));
+                });
     }
     
     @RoleAuthorization.AdminOnly
     @GetMapping("/users")
-    public ResponseEntity<?> getAllUsers() {
-        try {
-            System.out.println("GET All users requested");
-            java.util.List<User> users = userService.getAllUsers();
-            return ResponseEntity.ok(users);
-        } catch (Exception e) {
-            System.err.println("Error fetching users: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(500).body(Map.of("error", "Failed to fetch users: " + e.getMessage()));
-        }
+    public CompletableFuture<ResponseEntity<?>> getAllUsers() {
+        System.out.println("GET All users requested");
+        return userService.getAllUsersAsync()
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.rootCause(e);
+                    System.err.println("Error fetching users: " + cause.getMessage());
+                    cause.printStackTrace();
+                    return ResponseEntity.status(500).body(Map.of("error", "Failed to fetch users: " + cause.getMessage()));
+                });
     }
 }
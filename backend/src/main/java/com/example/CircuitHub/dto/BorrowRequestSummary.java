@@ -0,0 +1,95 @@
+package com.example.CircuitHub.dto;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table-row view of a borrow request for the list endpoints.
+ * Read with a Firestore field mask (see FIELDS); the full document is served by /api/requests/{id}.
+ */
+public class BorrowRequestSummary {
+
+    // Fields read from Firestore - keep in sync with the properties below
+    public static final String[] FIELDS = {
+        "id", "createdAt", "status",
+        "borrowerId", "borrowerName", "teacherAssigned", "teacherId",
+        "items", "itemId", "itemName", "requestedQuantity",
+        "borrowDate", "startTime", "returnTime", "timeRange", "startDate", "endDate"
+    };
+
+    private String id;
+    private Date createdAt;
+    private String status;
+
+    private String borrowerId;
+    private String borrowerName;
+    private String teacherAssigned;
+    private String teacherId;
+
+    private List<Map<String, String>> items;
+    private String itemId;
+    private String itemName;
+    private Integer requestedQuantity;
+
+    private String borrowDate;
+    private String startTime;
+    private String returnTime;
+    private String timeRange;
+    private String startDate;
+    private String endDate;
+
+    // No-argument constructor (required by Firestore)
+    public BorrowRequestSummary() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public Date getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Date createdAt) { this.createdAt = createdAt; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getBorrowerId() { return borrowerId; }
+    public void setBorrowerId(String borrowerId) { this.borrowerId = borrowerId; }
+
+    public String getBorrowerName() { return borrowerName; }
+    public void setBorrowerName(String borrowerName) { this.borrowerName = borrowerName; }
+
+    public String getTeacherAssigned() { return teacherAssigned; }
+    public void setTeacherAssigned(String teacherAssigned) { this.teacherAssigned = teacherAssigned; }
+
+    public String getTeacherId() { return teacherId; }
+    public void setTeacherId(String teacherId) { this.teacherId = teacherId; }
+
+    public List<Map<String, String>> getItems() { return items; }
+    public void setItems(List<Map<String, String>> items) { this.items = items; }
+
+    public String getItemId() { return itemId; }
+    public void setItemId(String itemId) { this.itemId = itemId; }
+
+    public String getItemName() { return itemName; }
+    public void setItemName(String itemName) { this.itemName = itemName; }
+
+    public Integer getRequestedQuantity() { return requestedQuantity; }
+    public void setRequestedQuantity(Integer requestedQuantity) { this.requestedQuantity = requestedQuantity; }
+
+    public String getBorrowDate() { return borrowDate; }
+    public void setBorrowDate(String borrowDate) { this.borrowDate = borrowDate; }
+
+    public String getStartTime() { return startTime; }
+    public void setStartTime(String startTime) { this.startTime = startTime; }
+
+    public String getReturnTime() { return returnTime; }
+    public void setReturnTime(String returnTime) { this.returnTime = returnTime; }
+
+    public String getTimeRange() { return timeRange; }
+    public void setTimeRange(String timeRange) { this.timeRange = timeRange; }
+
+    public String getStartDate() { return startDate; }
+    public void setStartDate(String startDate) { this.startDate = startDate; }
+
+    public String getEndDate() { return endDate; }
+    public void setEndDate(String endDate) { this.endDate = endDate; }
+}
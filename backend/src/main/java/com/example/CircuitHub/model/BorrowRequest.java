@@ -35,6 +35,7 @@ public class BorrowRequest {
     
     // Items - Array of maps with {id, name}
     private List<Map<String, String>> items; // Each item has "id" and "name"
+    private List<String> itemIds;           // Denormalized item IDs (queryable with array-contains)
 
     // Legacy single-item fields (kept for backward compatibility)
     private String itemId;
@@ -53,6 +54,11 @@ public class BorrowRequest {
     private String endDate;
     private String purpose;
     private Integer requestedQuantity;
+    private Map<String, Integer> takenQuantities;  // Units taken out of stock per item on approval (put back on return)
+
+    // Normalized booking window (epoch millis), written on every create/update
+    private Long startEpochMillis;
+    private Long endEpochMillis;
     
     // Room tracking
     private String roomNumber;
@@ -73,6 +79,8 @@ public class BorrowRequest {
     private Integer daysLate;
     private Integer hoursLate;
     private String lateReturnNotes;
+    private Boolean isOverdue;        // Set by the overdue scheduler once an approved request passes its end time
+    private String overdueSince;
 
     // Additional tracking fields
     private String updatedAt;
@@ -150,6 +158,9 @@ public class BorrowRequest {
     public List<Map<String, String>> getItems() { return items; }
     public void setItems(List<Map<String, String>> items) { this.items = items; }
 
+    public List<String> getItemIds() { return itemIds; }
+    public void setItemIds(List<String> itemIds) { this.itemIds = itemIds; }
+
     // Legacy single-item support
     public String getItemId() { return itemId; }
     public void setItemId(String itemId) { this.itemId = itemId; }
@@ -182,6 +193,12 @@ public class BorrowRequest {
     public String getEndDate() { return endDate; }
     public void setEndDate(String endDate) { this.endDate = endDate; }
 
+    public Long getStartEpochMillis() { return startEpochMillis; }
+    public void setStartEpochMillis(Long startEpochMillis) { this.startEpochMillis = startEpochMillis; }
+
+    public Long getEndEpochMillis() { return endEpochMillis; }
+    public void setEndEpochMillis(Long endEpochMillis) { this.endEpochMillis = endEpochMillis; }
+
     public String getPurpose() { return purpose; }
     public void setPurpose(String purpose) { this.purpose = purpose; }
 
@@ -225,6 +242,12 @@ public class BorrowRequest {
     public String getLateReturnNotes() { return lateReturnNotes; }
     public void setLateReturnNotes(String lateReturnNotes) { this.lateReturnNotes = lateReturnNotes; }
 
+    public Boolean getIsOverdue() { return isOverdue; }
+    public void setIsOverdue(Boolean isOverdue) { this.isOverdue = isOverdue; }
+
+    public String getOverdueSince() { return overdueSince; }
+    public void setOverdueSince(String overdueSince) { this.overdueSince = overdueSince; }
+
     public String getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(String updatedAt) { this.updatedAt = updatedAt; }
 
@@ -240,6 +263,9 @@ public class BorrowRequest {
     public Integer getRequestedQuantity() { return requestedQuantity; }
     public void setRequestedQuantity(Integer requestedQuantity) { this.requestedQuantity = requestedQuantity; }
 
+    public Map<String, Integer> getTakenQuantities() { return takenQuantities; }
+    public void setTakenQuantities(Map<String, Integer> takenQuantities) { this.takenQuantities = takenQuantities; }
+
     @Override
     public String toString() {
         return "BorrowRequest{" +
@@ -12,6 +12,7 @@ public class Item {
     private Date createdAt;      // Changed from String to Date for Firestore Timestamp
     private Date updatedAt;      // Added updatedAt field for Firestore Timestamp
     private Integer quantity;    // Changed from int to Integer to handle nulls
+    private Integer totalQuantity;  // Units owned, borrowed ones included; quantity is what's on hand
 
     // REQUIRED: Public no-argument constructor for Firestore deserialization
     public Item() {
@@ -32,6 +33,15 @@ public class Item {
         this.quantity = quantity;
     }
 
+    // Copy constructor (shared cached items are handed out as copies)
+    public Item(Item other) {
+        this(other.id, other.name, other.description, other.condition, other.status, other.imagePath,
+             other.createdAt != null ? new Date(other.createdAt.getTime()) : null,
+             other.updatedAt != null ? new Date(other.updatedAt.getTime()) : null,
+             other.quantity);
+        this.totalQuantity = other.totalQuantity;
+    }
+
     // Getters and Setters
     public String getId() { 
         return id; 
@@ -104,4 +114,12 @@ public class Item {
     public void setQuantity(Integer quantity) { 
         this.quantity = quantity; 
     }
+
+    public Integer getTotalQuantity() { 
+        return totalQuantity; 
+    }
+    
+    public void setTotalQuantity(Integer totalQuantity) { 
+        this.totalQuantity = totalQuantity; 
+    }
 }
@@ -0,0 +1,76 @@
+package com.example.CircuitHub.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Borrow request lifecycle event stored in the requestEvents outbox
+ */
+public class RequestEvent {
+
+    private String id;
+    private String type;              // "created", "teacher-approved", "approved", "returned", "denied", "status-changed", "deleted"
+    private String requestId;
+    private String status;            // Request status after the change (null when deleted)
+    private String previousStatus;
+    private String borrowerId;
+    private List<String> itemIds;
+    private Boolean isLate;
+    private Date occurredAt;          // Server timestamp of the commit that wrote the event
+
+    // Dispatch bookkeeping
+    private Boolean processed;
+    private Boolean failed;
+    private Integer attempts;
+    private List<String> handledBy;   // Handlers that already succeeded (skipped on retry)
+    private String lastError;
+    private Date nextAttemptAt;       // Set while pending: when the dispatcher may (re)try or its lease ends
+
+    // No-argument constructor (required by Firestore)
+    public RequestEvent() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getRequestId() { return requestId; }
+    public void setRequestId(String requestId) { this.requestId = requestId; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getPreviousStatus() { return previousStatus; }
+    public void setPreviousStatus(String previousStatus) { this.previousStatus = previousStatus; }
+
+    public String getBorrowerId() { return borrowerId; }
+    public void setBorrowerId(String borrowerId) { this.borrowerId = borrowerId; }
+
+    public List<String> getItemIds() { return itemIds; }
+    public void setItemIds(List<String> itemIds) { this.itemIds = itemIds; }
+
+    public Boolean getIsLate() { return isLate; }
+    public void setIsLate(Boolean isLate) { this.isLate = isLate; }
+
+    public Date getOccurredAt() { return occurredAt; }
+    public void setOccurredAt(Date occurredAt) { this.occurredAt = occurredAt; }
+
+    public Boolean getProcessed() { return processed; }
+    public void setProcessed(Boolean processed) { this.processed = processed; }
+
+    public Boolean getFailed() { return failed; }
+    public void setFailed(Boolean failed) { this.failed = failed; }
+
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+
+    public List<String> getHandledBy() { return handledBy; }
+    public void setHandledBy(List<String> handledBy) { this.handledBy = handledBy; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Date getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Date nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+}
@@ -0,0 +1,659 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory materialized view of active bookings, keyed by item id.
+ *
+ * Only requests in an active status are held here. Each item keeps its bookings
+ * sorted by start time with an implicit interval tree (max end per node) on top,
+ * so an overlap query costs O(log n + k) instead of a scan of borrowRequests.
+ *
+ * The view is fed by a Firestore snapshot listener on borrowRequests filtered to
+ * the active statuses, so writes from other backend instances show up within the
+ * listener latency. BorrowRequestService also applies its own writes right away
+ * (read-your-writes); every change carries the document update time and older
+ * changes are ignored, so a late listener event can't undo a newer local write.
+ * The first snapshot after the listener is (re)registered rebuilds the whole view
+ * and swaps it in, so nothing missed while the listener was down survives it.
+ * Until that snapshot arrives, reads fall back to a per-item query on the
+ * denormalized itemIds array.
+ *
+ * Removal listeners hear about every request (or item line) that leaves the view,
+ * whichever way it left: a backend write, a direct write from the web app, or a
+ * rebuild. They are called with the view locked and must not block.
+ */
+@Component
+public class ActiveBookingIndex {
+
+    public static final List<String> ACTIVE_STATUSES =
+            List.of("Pending", "Pending-Teacher", "Teacher-Approved", "Pending-Admin", "Approved");
+
+    // How long readers wait for the listener's first snapshot before querying per item
+    private static final long INITIAL_SNAPSHOT_TIMEOUT_SECONDS = 5;
+    // Versions of removed requests are kept this long to reject stale re-adds
+    private static final long TOMBSTONE_TTL_MICROS = 10L * 60 * 1_000_000;
+
+    private final Firestore firestore;
+    private final QueryListener listener;
+    private final ZoneId labZone;
+
+    // itemId -> immutable sorted timeline (replaced atomically on every change)
+    private volatile Map<String, ItemTimeline> timelines = new ConcurrentHashMap<>();
+    // requestId -> item ids the request is currently indexed under
+    private volatile Map<String, Set<String>> itemsByRequest = new ConcurrentHashMap<>();
+    // requestId -> update time (micros) of the last change applied, including removals
+    private volatile Map<String, Long> versions = new ConcurrentHashMap<>();
+
+    private final CountDownLatch initialSnapshot = new CountDownLatch(1);
+    private final List<RemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean loaded = false;
+    private volatile boolean waitedForSnapshot = false;
+    private volatile long lastTombstonePrune = 0;
+
+    public ActiveBookingIndex(ZoneId labZone) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.labZone = labZone;
+        this.listener = new QueryListener("Active booking",
+                firestore.collection("borrowRequests").whereIn("status", ACTIVE_STATUSES),
+                this::onSnapshot, this::onListenerFailure);
+    }
+
+    @PostConstruct
+    public void startListening() {
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stopListening() {
+        listener.stop();
+    }
+
+    /**
+     * Active bookings of an item that overlap [start, end)
+     */
+    public List<Booking> findOverlapping(String itemId, long start, long end, String excludeRequestId)
+            throws ExecutionException, InterruptedException {
+        List<Booking> result = new ArrayList<>();
+        ItemTimeline timeline = timelineFor(itemId);
+        if (timeline != null) {
+            timeline.collectOverlapping(start, end, excludeRequestId, result);
+        }
+        return result;
+    }
+
+    /**
+     * All active bookings of an item, sorted by start time
+     */
+    public List<Booking> getBookings(String itemId) throws ExecutionException, InterruptedException {
+        ItemTimeline timeline = timelineFor(itemId);
+        return timeline != null ? timeline.asList() : Collections.emptyList();
+    }
+
+    /**
+     * Units of an item currently out on approved (borrowed) requests
+     */
+    public int getLentQuantity(String itemId) throws ExecutionException, InterruptedException {
+        int lent = 0;
+        for (Booking booking : getBookings(itemId)) {
+            if ("Approved".equals(booking.getRequest().getStatus())) {
+                lent += booking.getQuantity();
+            }
+        }
+        return lent;
+    }
+
+    /**
+     * Current timeline of an item. Timelines are immutable and replaced on every
+     * change, so callers can cache data derived from one by identity.
+     */
+    ItemTimeline getTimeline(String itemId) throws ExecutionException, InterruptedException {
+        ItemTimeline timeline = timelineFor(itemId);
+        return timeline != null ? timeline : ItemTimeline.EMPTY;
+    }
+
+    /**
+     * Add, move or drop a request after this instance wrote it.
+     * Requests that are no longer active are removed from the index.
+     *
+     * @param updateTime Update time returned by the write (or read back after it)
+     */
+    public void upsert(BorrowRequest request, Timestamp updateTime) throws ExecutionException, InterruptedException {
+        if (request == null || request.getId() == null || updateTime == null) {
+            return;
+        }
+        apply(request, toMicros(updateTime));
+    }
+
+    /**
+     * Drop a request from the index after this instance deleted it
+     *
+     * @param updateTime Update time returned by the delete
+     */
+    public void remove(String requestId, Timestamp updateTime) throws ExecutionException, InterruptedException {
+        if (requestId == null || updateTime == null) {
+            return;
+        }
+        removeRequest(requestId, toMicros(updateTime));
+    }
+
+    public void addRemovalListener(RemovalListener listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * Whether the view is complete and up to date (first snapshot in, listener not failed)
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private void notifyRemoved(String requestId, Set<String> itemIds) {
+        if (itemIds.isEmpty()) {
+            return;
+        }
+        for (RemovalListener listener : removalListeners) {
+            try {
+                listener.onRemoved(requestId, itemIds);
+            } catch (RuntimeException e) {
+                System.err.println("❌ Booking removal listener failed for request " + requestId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void onListenerFailure() {
+        // Changes are missed until the listener is back, so read from Firestore meanwhile
+        waitedForSnapshot = true;
+        loaded = false;
+    }
+
+    private void onSnapshot(QuerySnapshot snapshot, boolean initial) {
+        long readTime = toMicros(snapshot.getReadTime());
+        if (initial) {
+            rebuild(snapshot, readTime);
+        } else {
+            applyChanges(snapshot, readTime);
+        }
+
+        if (!loaded) {
+            loaded = true;
+            System.out.println("✅ Active booking view ready: " + itemsByRequest.size() + " active requests, "
+                    + timelines.size() + " items");
+        }
+        initialSnapshot.countDown();
+        pruneTombstones(readTime);
+    }
+
+    private void applyChanges(QuerySnapshot snapshot, long readTime) {
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                // Left the active set: closed, rejected or deleted
+                removeRequest(doc.getId(), readTime);
+            } else {
+                BorrowRequest request = doc.toObject(BorrowRequest.class);
+                request.setId(doc.getId());
+                apply(request, toMicros(doc.getUpdateTime()));
+            }
+        }
+    }
+
+    /**
+     * Replace the whole view with the active set in a full snapshot.
+     * Local writes newer than the snapshot are carried over, since it predates them.
+     */
+    private synchronized void rebuild(QuerySnapshot snapshot, long readTime) {
+        Map<String, List<Booking>> bookingsByItem = new HashMap<>();
+        Map<String, Set<String>> newItemsByRequest = new ConcurrentHashMap<>();
+        Map<String, Long> newVersions = new ConcurrentHashMap<>();
+
+        for (Map.Entry<String, Long> entry : versions.entrySet()) {
+            if (entry.getValue() <= readTime) {
+                continue;
+            }
+            String requestId = entry.getKey();
+            newVersions.put(requestId, entry.getValue());
+            Set<String> itemIds = itemsByRequest.get(requestId);
+            if (itemIds == null) {
+                continue;
+            }
+            newItemsByRequest.put(requestId, itemIds);
+            for (String itemId : itemIds) {
+                Booking booking = timelines.getOrDefault(itemId, ItemTimeline.EMPTY).get(requestId);
+                if (booking != null) {
+                    bookingsByItem.computeIfAbsent(itemId, k -> new ArrayList<>()).add(booking);
+                }
+            }
+        }
+
+        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+            if (newVersions.containsKey(doc.getId())) {
+                continue;
+            }
+            BorrowRequest request = doc.toObject(BorrowRequest.class);
+            request.setId(doc.getId());
+            newVersions.put(doc.getId(), toMicros(doc.getUpdateTime()));
+
+            Map<String, Booking> bookings = toBookings(request);
+            if (!bookings.isEmpty()) {
+                newItemsByRequest.put(doc.getId(), new HashSet<>(bookings.keySet()));
+            }
+            for (Booking booking : bookings.values()) {
+                bookingsByItem.computeIfAbsent(booking.getItemId(), k -> new ArrayList<>()).add(booking);
+            }
+        }
+
+        Map<String, ItemTimeline> newTimelines = new ConcurrentHashMap<>();
+        bookingsByItem.forEach((itemId, bookings) -> newTimelines.put(itemId, ItemTimeline.of(bookings)));
+
+        Map<String, Set<String>> oldItemsByRequest = itemsByRequest;
+        timelines = newTimelines;
+        itemsByRequest = newItemsByRequest;
+        versions = newVersions;
+
+        // Requests that closed while the listener was down
+        for (Map.Entry<String, Set<String>> entry : oldItemsByRequest.entrySet()) {
+            Set<String> dropped = new HashSet<>(entry.getValue());
+            dropped.removeAll(newItemsByRequest.getOrDefault(entry.getKey(), Collections.emptySet()));
+            notifyRemoved(entry.getKey(), dropped);
+        }
+    }
+
+    private synchronized void apply(BorrowRequest request, long version) {
+        String requestId = request.getId();
+        if (isStale(requestId, version)) {
+            return;
+        }
+        versions.put(requestId, version);
+
+        Map<String, Booking> bookings = toBookings(request);
+
+        Set<String> previous = itemsByRequest.getOrDefault(requestId, Collections.emptySet());
+        Set<String> dropped = new HashSet<>();
+        for (String itemId : previous) {
+            if (!bookings.containsKey(itemId)) {
+                removeFromTimeline(itemId, requestId);
+                dropped.add(itemId);
+            }
+        }
+
+        for (Booking booking : bookings.values()) {
+            timelines.compute(booking.getItemId(),
+                    (k, timeline) -> (timeline == null ? ItemTimeline.EMPTY : timeline).with(booking));
+        }
+
+        if (bookings.isEmpty()) {
+            itemsByRequest.remove(requestId);
+        } else {
+            itemsByRequest.put(requestId, new HashSet<>(bookings.keySet()));
+        }
+        notifyRemoved(requestId, dropped);
+    }
+
+    private synchronized void removeRequest(String requestId, long version) {
+        if (isStale(requestId, version)) {
+            return;
+        }
+        versions.put(requestId, version);
+
+        Set<String> previous = itemsByRequest.remove(requestId);
+        if (previous != null) {
+            for (String itemId : previous) {
+                removeFromTimeline(itemId, requestId);
+            }
+            notifyRemoved(requestId, previous);
+        }
+    }
+
+    private boolean isStale(String requestId, long version) {
+        Long current = versions.get(requestId);
+        return current != null && version < current;
+    }
+
+    /**
+     * Forget versions of requests that left the index long ago
+     */
+    private synchronized void pruneTombstones(long nowMicros) {
+        if (nowMicros - lastTombstonePrune < TOMBSTONE_TTL_MICROS) {
+            return;
+        }
+        lastTombstonePrune = nowMicros;
+        versions.entrySet().removeIf(entry -> !itemsByRequest.containsKey(entry.getKey())
+                && nowMicros - entry.getValue() > TOMBSTONE_TTL_MICROS);
+    }
+
+    private void removeFromTimeline(String itemId, String requestId) {
+        timelines.computeIfPresent(itemId, (k, timeline) -> {
+            ItemTimeline updated = timeline.without(requestId);
+            return updated.size() == 0 ? null : updated;
+        });
+    }
+
+    /**
+     * One booking per item line of an active request; empty if the request is not active
+     */
+    private Map<String, Booking> toBookings(BorrowRequest request) {
+        Map<String, Booking> bookings = new LinkedHashMap<>();
+        if (!ACTIVE_STATUSES.contains(request.getStatus())) {
+            return bookings;
+        }
+
+        long start;
+        long end;
+        try {
+            start = BookingTimes.startMillis(request, labZone);
+            end = BookingTimes.endMillis(request, labZone);
+        } catch (DateTimeParseException e) {
+            System.err.println("Failed to parse dates for booking " + request.getId() + ": " + e.getMessage());
+            return bookings;
+        }
+
+        for (String itemId : itemIdsOf(request)) {
+            bookings.put(itemId, new Booking(request, itemId, start, end, requestedQuantity(request, itemId)));
+        }
+        return bookings;
+    }
+
+    /**
+     * Timeline of an item from the view, or straight from Firestore while the
+     * listener has not delivered its first snapshot yet
+     */
+    private ItemTimeline timelineFor(String itemId) throws ExecutionException, InterruptedException {
+        if (isReady()) {
+            return timelines.get(itemId);
+        }
+        return loadTimeline(itemId);
+    }
+
+    /**
+     * Wait briefly for the first snapshot at startup; afterwards don't block callers
+     */
+    private boolean isReady() throws InterruptedException {
+        if (loaded) {
+            return true;
+        }
+        if (waitedForSnapshot) {
+            return false;
+        }
+        boolean ready = initialSnapshot.await(INITIAL_SNAPSHOT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        waitedForSnapshot = true;
+        return ready;
+    }
+
+    /**
+     * Query only the active requests that contain this item.
+     * Uses the denormalized itemIds array (composite index itemIds + status).
+     */
+    private ItemTimeline loadTimeline(String itemId) throws ExecutionException, InterruptedException {
+        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests")
+                .whereArrayContains("itemIds", itemId)
+                .whereIn("status", ACTIVE_STATUSES)
+                .get();
+
+        List<Booking> bookings = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : future.get().getDocuments()) {
+            BorrowRequest request = doc.toObject(BorrowRequest.class);
+            request.setId(doc.getId());
+            Booking booking = toBookings(request).get(itemId);
+            if (booking != null) {
+                bookings.add(booking);
+            }
+        }
+        return ItemTimeline.of(bookings);
+    }
+
+    private static long toMicros(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000L + timestamp.getNanos() / 1_000;
+    }
+
+    /**
+     * Store the request's item ids in its itemIds array so per-item queries can use array-contains
+     *
+     * @return true if the field changed
+     */
+    public static boolean denormalizeItemIds(BorrowRequest request) {
+        List<String> ids = new ArrayList<>(itemIdsOf(request));
+        boolean changed = !ids.equals(request.getItemIds());
+        request.setItemIds(ids);
+        return changed;
+    }
+
+    /**
+     * Item ids referenced by a request (items array, or the legacy itemId field)
+     */
+    public static Set<String> itemIdsOf(BorrowRequest request) {
+        Set<String> ids = new LinkedHashSet<>();
+        if (request.getItems() != null && !request.getItems().isEmpty()) {
+            for (Map<String, String> item : request.getItems()) {
+                String id = item.get("id");
+                if (id != null && !id.isEmpty()) {
+                    ids.add(id);
+                }
+            }
+        }
+        if (request.getItemId() != null && !request.getItemId().isEmpty()) {
+            ids.add(request.getItemId());
+        }
+        return ids;
+    }
+
+    /**
+     * Get requested quantity for a specific item from a request
+     * Handles both legacy single-item and new multi-item requests
+     */
+    public static int requestedQuantity(BorrowRequest request, String itemId) {
+        // Check items array first (multi-item requests)
+        if (request.getItems() != null && !request.getItems().isEmpty()) {
+            for (Map<String, String> item : request.getItems()) {
+                if (itemId.equals(item.get("id"))) {
+                    return parseQuantity(item.get("quantity"));
+                }
+            }
+        }
+
+        // Legacy single-item request
+        if (itemId.equals(request.getItemId())) {
+            Integer quantity = request.getRequestedQuantity();
+            return (quantity != null && quantity > 0) ? quantity : 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Parse a line quantity, defaulting to 1 when missing or malformed
+     */
+    public static int parseQuantity(Object qtyObj) {
+        try {
+            if (qtyObj instanceof String) {
+                return Integer.parseInt(((String) qtyObj).trim());
+            } else if (qtyObj instanceof Number) {
+                return ((Number) qtyObj).intValue();
+            }
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+        return 1;
+    }
+
+    /**
+     * Called when a request, or some of its item lines, leave the view
+     */
+    @FunctionalInterface
+    public interface RemovalListener {
+        void onRemoved(String requestId, Set<String> itemIds);
+    }
+
+    /**
+     * One item line of an active request, with its dates already converted to epoch millis
+     */
+    public static final class Booking {
+        private final BorrowRequest request;
+        private final String itemId;
+        private final long start;
+        private final long end;
+        private final int quantity;
+
+        Booking(BorrowRequest request, String itemId, long start, long end, int quantity) {
+            this.request = request;
+            this.itemId = itemId;
+            this.start = start;
+            this.end = end;
+            this.quantity = quantity;
+        }
+
+        public BorrowRequest getRequest() { return request; }
+        public String getRequestId() { return request.getId(); }
+        public String getItemId() { return itemId; }
+        public long getStart() { return start; }
+        public long getEnd() { return end; }
+        public int getQuantity() { return quantity; }
+    }
+
+    /**
+     * Immutable per-item timeline: bookings sorted by start, plus an implicit
+     * segment tree holding the max end time of each subtree for pruning.
+     */
+    static final class ItemTimeline {
+        static final ItemTimeline EMPTY = new ItemTimeline(new Booking[0]);
+
+        private final Booking[] bookings;
+        private final long[] starts;
+        private final long[] maxEnd;
+
+        /**
+         * Timeline of bookings in any order
+         */
+        static ItemTimeline of(List<Booking> bookings) {
+            List<Booking> sorted = new ArrayList<>(bookings);
+            sorted.sort(Comparator.comparingLong(Booking::getStart));
+            return new ItemTimeline(sorted.toArray(new Booking[0]));
+        }
+
+        ItemTimeline(Booking[] sorted) {
+            this.bookings = sorted;
+            this.starts = new long[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                starts[i] = sorted[i].getStart();
+            }
+            this.maxEnd = new long[Math.max(1, 4 * sorted.length)];
+            if (sorted.length > 0) {
+                build(1, 0, sorted.length - 1);
+            }
+        }
+
+        int size() {
+            return bookings.length;
+        }
+
+        List<Booking> asList() {
+            return Collections.unmodifiableList(Arrays.asList(bookings));
+        }
+
+        Booking get(String requestId) {
+            for (Booking b : bookings) {
+                if (b.getRequestId().equals(requestId)) {
+                    return b;
+                }
+            }
+            return null;
+        }
+
+        ItemTimeline with(Booking booking) {
+            List<Booking> list = new ArrayList<>(bookings.length + 1);
+            for (Booking b : bookings) {
+                if (!b.getRequestId().equals(booking.getRequestId())) {
+                    list.add(b);
+                }
+            }
+            // Insert at the first position whose start is later than the new booking
+            int pos = 0;
+            while (pos < list.size() && list.get(pos).getStart() <= booking.getStart()) {
+                pos++;
+            }
+            list.add(pos, booking);
+            return new ItemTimeline(list.toArray(new Booking[0]));
+        }
+
+        ItemTimeline without(String requestId) {
+            List<Booking> list = new ArrayList<>(bookings.length);
+            for (Booking b : bookings) {
+                if (!b.getRequestId().equals(requestId)) {
+                    list.add(b);
+                }
+            }
+            return list.size() == bookings.length ? this : new ItemTimeline(list.toArray(new Booking[0]));
+        }
+
+        /**
+         * Overlap occurs if: queryStart < bookingEnd AND queryEnd > bookingStart
+         */
+        void collectOverlapping(long queryStart, long queryEnd, String excludeRequestId, List<Booking> out) {
+            // Only bookings that start before queryEnd can overlap
+            int limit = lowerBound(queryEnd) - 1;
+            if (limit < 0) {
+                return;
+            }
+            collect(1, 0, bookings.length - 1, limit, queryStart, excludeRequestId, out);
+        }
+
+        private void collect(int node, int lo, int hi, int limit, long queryStart,
+                             String excludeRequestId, List<Booking> out) {
+            if (lo > limit || maxEnd[node] <= queryStart) {
+                return;
+            }
+            if (lo == hi) {
+                Booking booking = bookings[lo];
+                if (excludeRequestId == null || !excludeRequestId.equals(booking.getRequestId())) {
+                    out.add(booking);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            collect(2 * node, lo, mid, limit, queryStart, excludeRequestId, out);
+            collect(2 * node + 1, mid + 1, hi, limit, queryStart, excludeRequestId, out);
+        }
+
+        private long build(int node, int lo, int hi) {
+            if (lo == hi) {
+                maxEnd[node] = bookings[lo].getEnd();
+            } else {
+                int mid = (lo + hi) >>> 1;
+                maxEnd[node] = Math.max(build(2 * node, lo, mid), build(2 * node + 1, mid + 1, hi));
+            }
+            return maxEnd[node];
+        }
+
+        // First index whose start is >= value
+        private int lowerBound(long value) {
+            int lo = 0;
+            int hi = starts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
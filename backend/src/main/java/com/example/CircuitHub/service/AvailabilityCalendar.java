@@ -0,0 +1,55 @@
+package com.example.CircuitHub.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-day availability calendar built from a difference array.
+ *
+ * Every booking adds its quantity at its first day and removes it after its
+ * last day (both inclusive, clamped to the range); one prefix sum then gives
+ * the booked quantity for each day. Cost is O(days + bookings) and the figures
+ * live in a primitive int[].
+ */
+public final class AvailabilityCalendar {
+
+    private AvailabilityCalendar() {
+    }
+
+    /**
+     * Units booked on each day of [firstDay, firstDay + days), where days are epoch day numbers
+     */
+    public static int[] bookedPerDay(List<ActiveBookingIndex.Booking> bookings, long firstDay, int days) {
+        int[] booked = new int[days + 1];
+        long lastDay = firstDay + days - 1;
+
+        for (ActiveBookingIndex.Booking booking : bookings) {
+            long from = Math.max(BookingTimes.epochDay(booking.getStart()), firstDay);
+            long to = Math.min(BookingTimes.epochDay(booking.getEnd()), lastDay);
+            if (from > to) {
+                continue;
+            }
+            booked[(int) (from - firstDay)] += booking.getQuantity();
+            booked[(int) (to - firstDay) + 1] -= booking.getQuantity();
+        }
+
+        int running = 0;
+        for (int i = 0; i < days; i++) {
+            running += booked[i];
+            booked[i] = running;
+        }
+        return Arrays.copyOf(booked, days);
+    }
+
+    /**
+     * Units still available on each day: total quantity minus units booked
+     */
+    public static int[] availablePerDay(List<ActiveBookingIndex.Booking> bookings, int totalQuantity,
+                                        long firstDay, int days) {
+        int[] available = bookedPerDay(bookings, firstDay, days);
+        for (int i = 0; i < days; i++) {
+            available[i] = totalQuantity - available[i];
+        }
+        return available;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.CircuitHub.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packed start/end events of bookings, shared by the sweep-line helpers.
+ *
+ * Each event is one long: time offset from an origin, then a start flag, then
+ * the quantity in the low bits. Sorting the array orders events by time, with
+ * ends before starts at the same instant (half-open intervals).
+ */
+final class BookingEvents {
+
+    private static final int QTY_BITS = 20;
+    private static final long QTY_MASK = (1L << QTY_BITS) - 1;
+    private static final long START_FLAG = 1L << QTY_BITS;
+    private static final int TIME_SHIFT = QTY_BITS + 1;
+    // Offsets must fit in the remaining 42 bits (~139 years of millis)
+    static final long MAX_RANGE = (1L << (63 - TIME_SHIFT)) - 1;
+
+    private BookingEvents() {
+    }
+
+    /**
+     * Sorted events of the bookings clipped to [origin, limit); limit - origin must not exceed MAX_RANGE
+     */
+    static long[] encode(List<ActiveBookingIndex.Booking> bookings, long origin, long limit) {
+        long[] events = new long[bookings.size() * 2];
+        int count = 0;
+        for (ActiveBookingIndex.Booking booking : bookings) {
+            long start = Math.max(booking.getStart(), origin);
+            long end = Math.min(booking.getEnd(), limit);
+            long quantity = Math.min(Math.max(booking.getQuantity(), 0), QTY_MASK);
+            if (start >= end || quantity == 0) {
+                continue;
+            }
+            events[count++] = ((start - origin) << TIME_SHIFT) | START_FLAG | quantity;
+            events[count++] = ((end - origin) << TIME_SHIFT) | quantity;
+        }
+        Arrays.sort(events, 0, count);
+        return count == events.length ? events : Arrays.copyOf(events, count);
+    }
+
+    static long offset(long event) {
+        return event >>> TIME_SHIFT;
+    }
+
+    static boolean isStart(long event) {
+        return (event & START_FLAG) != 0;
+    }
+
+    static int quantity(long event) {
+        return (int) (event & QTY_MASK);
+    }
+
+    /**
+     * Change in the booked level caused by the event
+     */
+    static int delta(long event) {
+        return isStart(event) ? quantity(event) : -quantity(event);
+    }
+}
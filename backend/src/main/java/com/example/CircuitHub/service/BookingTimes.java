@@ -0,0 +1,199 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Date/time helpers shared by the availability services.
+ *
+ * Booking dates arrive as ISO strings (the frontend sends toISOString(), i.e. UTC).
+ * Strings with an offset are converted exactly; ISO strings without one are read as
+ * UTC wall-clock time. Legacy requests only have a borrowDate plus clock times
+ * ("3:00 PM") as shown in the lab; those are local to the lab's time zone, which
+ * callers pass in (the labZone bean, from circuithub.lab.zone-id).
+ */
+public final class BookingTimes {
+
+    public static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // Lab period times as shown in the form, e.g. "3:00 PM"
+    private static final DateTimeFormatter CLOCK_TIME = DateTimeFormatter.ofPattern("h:mm a", Locale.ENGLISH);
+
+    private BookingTimes() {
+    }
+
+    /**
+     * Parse date string to LocalDateTime
+     * Supports full ISO date-times (with or without offset) and plain dates (start of day)
+     */
+    public static LocalDateTime parseDateTime(String dateStr) {
+        if (dateStr == null) {
+            throw new DateTimeParseException("Date string is null", "", 0);
+        }
+
+        // Try ISO 8601 format first
+        try {
+            return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            // Try other common formats
+            try {
+                return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            } catch (DateTimeParseException e2) {
+                // If just date, assume start of day
+                try {
+                    return LocalDateTime.parse(dateStr + "T00:00:00");
+                } catch (DateTimeParseException e3) {
+                    throw new DateTimeParseException("Unable to parse date: " + dateStr, dateStr, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse date string to LocalDate (for date-only operations)
+     */
+    public static LocalDate parseDate(String dateStr) {
+        return parseDateTime(dateStr).toLocalDate();
+    }
+
+    public static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    public static long toEpochMillis(LocalDate date) {
+        return date.toEpochDay() * MILLIS_PER_DAY;
+    }
+
+    /**
+     * Parse an ISO date/time string straight to epoch millis
+     */
+    public static long parseEpochMillis(String dateStr) {
+        if (dateStr != null && dateStr.length() > 10) {
+            try {
+                return OffsetDateTime.parse(dateStr).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // No offset - fall through to wall-clock parsing
+            }
+        }
+        return toEpochMillis(parseDateTime(dateStr));
+    }
+
+    /**
+     * Booking start as epoch millis: the stored normalized value when present,
+     * otherwise parsed from the request's date strings
+     */
+    public static long startMillis(BorrowRequest request, ZoneId labZone) {
+        if (request.getStartEpochMillis() != null) {
+            return request.getStartEpochMillis();
+        }
+        Long parsed = deriveStart(request, labZone);
+        if (parsed == null) {
+            throw new DateTimeParseException("Unable to parse start date: " + request.getStartDate(),
+                    String.valueOf(request.getStartDate()), 0);
+        }
+        return parsed;
+    }
+
+    /**
+     * Booking end as epoch millis: the stored normalized value when present,
+     * otherwise parsed from the request's date strings
+     */
+    public static long endMillis(BorrowRequest request, ZoneId labZone) {
+        if (request.getEndEpochMillis() != null) {
+            return request.getEndEpochMillis();
+        }
+        Long parsed = deriveEnd(request, labZone);
+        if (parsed == null) {
+            throw new DateTimeParseException("Unable to parse end date: " + request.getEndDate(),
+                    String.valueOf(request.getEndDate()), 0);
+        }
+        return parsed;
+    }
+
+    /**
+     * Fill startEpochMillis/endEpochMillis from the request's date strings.
+     * Called on every write so hot-path checks can compare longs.
+     *
+     * @return true if either field changed
+     */
+    public static boolean normalize(BorrowRequest request, ZoneId labZone) {
+        Long start = deriveStart(request, labZone);
+        Long end = deriveEnd(request, labZone);
+        boolean changed = !Objects.equals(start, request.getStartEpochMillis())
+                || !Objects.equals(end, request.getEndEpochMillis());
+        request.setStartEpochMillis(start);
+        request.setEndEpochMillis(end);
+        return changed;
+    }
+
+    private static Long deriveStart(BorrowRequest request, ZoneId labZone) {
+        return derive(request.getStartDate(), request.getBorrowDate(), request.getStartTime(), labZone);
+    }
+
+    private static Long deriveEnd(BorrowRequest request, ZoneId labZone) {
+        return derive(request.getEndDate(), request.getBorrowDate(), request.getReturnTime(), labZone);
+    }
+
+    /**
+     * ISO date/time when available, otherwise the legacy borrowDate + clock time ("3:00 PM")
+     */
+    private static Long derive(String isoDate, String borrowDate, String clockTime, ZoneId labZone) {
+        if (isoDate != null && !isoDate.isEmpty()) {
+            try {
+                return parseEpochMillis(isoDate);
+            } catch (DateTimeParseException e) {
+                // Fall back to the legacy fields below
+            }
+        }
+        if (borrowDate != null && clockTime != null) {
+            try {
+                LocalDate date = labDate(borrowDate, labZone);
+                LocalTime time = LocalTime.parse(clockTime.trim().toUpperCase(Locale.ENGLISH), CLOCK_TIME);
+                return date.atTime(time).atZone(labZone).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calendar day in the lab of a borrowDate (plain date, or an instant with offset)
+     */
+    private static LocalDate labDate(String borrowDate, ZoneId labZone) {
+        if (borrowDate.length() > 10) {
+            try {
+                return OffsetDateTime.parse(borrowDate).atZoneSameInstant(labZone).toLocalDate();
+            } catch (DateTimeParseException e) {
+                // No offset - the date part is already the lab date
+            }
+        }
+        return parseDate(borrowDate);
+    }
+
+    /**
+     * Day number (days since 1970-01-01) of an epoch value
+     */
+    public static long epochDay(long epochMillis) {
+        return Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+    }
+
+    public static LocalDateTime fromEpochMillis(long epochMillis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000L),
+                (int) Math.floorMod(epochMillis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    public static long nowEpochMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.CircuitHub.service;
+
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves finished borrow requests out of the hot borrowRequests collection.
+ *
+ * Requests that are Returned, Denied or Cancelled and whose end time is older than
+ * circuithub.archive.min-age-days are copied to borrowRequestsArchive (same document
+ * ID) and deleted from borrowRequests in one WriteBatch per page. Each delete carries
+ * the update time the page was read at, so a request changed meanwhile stays where it
+ * is. Every page commits on its own and moved requests drop out of the query, so a
+ * run that stops part way simply continues on the next run. Run totals are kept in
+ * archiveJobs/{job}.
+ */
+@Service
+public class BorrowRequestArchiveService {
+
+    public static final String ARCHIVE_COLLECTION = "borrowRequestsArchive";
+    public static final List<String> CLOSED_STATUSES = List.of("Returned", "Denied", "Cancelled");
+
+    private static final String JOB_COLLECTION = "archiveJobs";
+    private static final String JOB_NAME = "borrowRequestArchive";
+    // Two writes per request (archive copy + delete), within the 500-write batch limit
+    private static final int PAGE_SIZE = 200;
+
+    private final Firestore firestore;
+    private final int minAgeDays;
+    private final int maxDocumentsPerRun;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public BorrowRequestArchiveService(@Value("${circuithub.archive.min-age-days:90}") int minAgeDays,
+                                       @Value("${circuithub.archive.max-documents-per-run:5000}") int maxDocumentsPerRun) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.minAgeDays = minAgeDays;
+        this.maxDocumentsPerRun = maxDocumentsPerRun;
+    }
+
+    @Scheduled(cron = "${circuithub.archive.cron:0 30 3 * * *}")
+    public void scheduledArchive() {
+        try {
+            runArchive(maxDocumentsPerRun);
+        } catch (IllegalStateException e) {
+            System.out.println("⏭️ Skipping scheduled archive: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("❌ Scheduled archive failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Archive up to maxDocuments closed requests, oldest end time first
+     */
+    public Map<String, Object> runArchive(int maxDocuments) throws ExecutionException, InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Archive is already running");
+        }
+
+        try {
+            long cutoff = BookingTimes.nowEpochMillis() - minAgeDays * BookingTimes.MILLIS_PER_DAY;
+            Query base = firestore.collection("borrowRequests")
+                    .whereIn("status", CLOSED_STATUSES)
+                    .whereLessThan("endEpochMillis", cutoff)
+                    .orderBy("endEpochMillis")
+                    .orderBy(FieldPath.documentId());
+
+            int scanned = 0;
+            int archived = 0;
+            boolean completed = false;
+            DocumentSnapshot last = null;
+
+            while (scanned < maxDocuments) {
+                Query query = base.limit(Math.min(PAGE_SIZE, maxDocuments - scanned));
+                if (last != null) {
+                    // Skip requests left behind earlier in this run
+                    query = query.startAfter(last);
+                }
+
+                List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
+                if (documents.isEmpty()) {
+                    completed = true;
+                    break;
+                }
+
+                archived += movePage(documents);
+                scanned += documents.size();
+                last = documents.get(documents.size() - 1);
+
+                if (documents.size() < PAGE_SIZE && scanned < maxDocuments) {
+                    completed = true;
+                    break;
+                }
+            }
+
+            saveState(archived, completed);
+            System.out.println("✅ Archive " + JOB_NAME + ": scanned " + scanned + ", archived " + archived
+                    + (completed ? " (completed)" : " (more to do)"));
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("job", JOB_NAME);
+            result.put("scanned", scanned);
+            result.put("archived", archived);
+            result.put("completed", completed);
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Move one page in a single batch; if any request changed since it was read,
+     * move the page one request at a time so only the changed ones stay behind
+     */
+    private int movePage(List<QueryDocumentSnapshot> documents) throws ExecutionException, InterruptedException {
+        WriteBatch batch = firestore.batch();
+        for (QueryDocumentSnapshot doc : documents) {
+            addMove(batch, doc);
+        }
+        try {
+            batch.commit().get();
+            return documents.size();
+        } catch (ExecutionException e) {
+            if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)
+                    && !FirestoreFutures.hasStatus(e, StatusCode.Code.NOT_FOUND)) {
+                throw e;
+            }
+        }
+
+        int moved = 0;
+        for (QueryDocumentSnapshot doc : documents) {
+            WriteBatch single = firestore.batch();
+            addMove(single, doc);
+            try {
+                single.commit().get();
+                moved++;
+            } catch (ExecutionException e) {
+                System.err.println("⚠️ Request " + doc.getId() + " changed while archiving, leaving it for the next run");
+            }
+        }
+        return moved;
+    }
+
+    private void addMove(WriteBatch batch, QueryDocumentSnapshot doc) {
+        Map<String, Object> data = new HashMap<>(doc.getData());
+        data.put("archivedAt", new Date());
+        batch.set(firestore.collection(ARCHIVE_COLLECTION).document(doc.getId()), data);
+        batch.delete(doc.getReference(), Precondition.updatedAt(doc.getUpdateTime()));
+    }
+
+    private void saveState(int archived, boolean completed) throws ExecutionException, InterruptedException {
+        Map<String, Object> state = new HashMap<>();
+        state.put("lastRunArchived", archived);
+        state.put("archived", FieldValue.increment(archived));
+        state.put("completed", completed);
+        state.put("updatedAt", LocalDateTime.now().toString());
+        firestore.collection(JOB_COLLECTION).document(JOB_NAME).set(state, SetOptions.merge()).get();
+    }
+}
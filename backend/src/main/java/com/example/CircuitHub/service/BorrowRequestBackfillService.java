@@ -0,0 +1,168 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resumable backfill of normalized fields on existing borrow requests.
+ *
+ * Pages through borrowRequests in document-id order, writes the missing or outdated fields
+ * with one WriteBatch per page and saves the last processed id in
+ * backfillJobs/{job}, so a run that stops (or hits its document limit) picks up
+ * where it left off on the next call.
+ */
+@Service
+public class BorrowRequestBackfillService {
+
+    private static final String JOB_NAME = "borrowRequestNormalization";
+    private static final int PAGE_SIZE = 300;
+
+    private final Firestore firestore;
+    private final ZoneId labZone;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public BorrowRequestBackfillService(ZoneId labZone) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.labZone = labZone;
+    }
+
+    /**
+     * Process up to maxDocuments requests, continuing from the saved cursor
+     *
+     * @param restart Ignore the saved cursor and start from the first document
+     * @param maxDocuments Upper bound on documents scanned in this call
+     */
+    public Map<String, Object> runBackfill(boolean restart, int maxDocuments) throws ExecutionException, InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Backfill is already running");
+        }
+
+        try {
+            DocumentReference stateRef = firestore.collection("backfillJobs").document(JOB_NAME);
+            DocumentSnapshot state = stateRef.get().get();
+
+            String cursor = null;
+            long totalScanned = 0;
+            long totalUpdated = 0;
+            if (!restart && state.exists()) {
+                if (Boolean.TRUE.equals(state.getBoolean("completed"))) {
+                    return summary(state.getString("lastDocumentId"), 0, 0, true);
+                }
+                cursor = state.getString("lastDocumentId");
+                totalScanned = state.getLong("scanned") != null ? state.getLong("scanned") : 0;
+                totalUpdated = state.getLong("updated") != null ? state.getLong("updated") : 0;
+            }
+
+            int scanned = 0;
+            int updated = 0;
+            boolean completed = false;
+
+            while (scanned < maxDocuments) {
+                Query query = firestore.collection("borrowRequests")
+                        .orderBy(FieldPath.documentId())
+                        .limit(Math.min(PAGE_SIZE, maxDocuments - scanned));
+                if (cursor != null) {
+                    query = query.startAfter(cursor);
+                }
+
+                List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
+                if (documents.isEmpty()) {
+                    completed = true;
+                    break;
+                }
+
+                WriteBatch batch = firestore.batch();
+                int pageUpdates = 0;
+                for (QueryDocumentSnapshot doc : documents) {
+                    Map<String, Object> fields = missingFields(doc);
+                    if (!fields.isEmpty()) {
+                        batch.update(doc.getReference(), fields);
+                        pageUpdates++;
+                    }
+                }
+                if (pageUpdates > 0) {
+                    batch.commit().get();
+                }
+
+                scanned += documents.size();
+                updated += pageUpdates;
+                cursor = documents.get(documents.size() - 1).getId();
+
+                // Save progress after every page so an interrupted run can resume
+                saveState(stateRef, cursor, totalScanned + scanned, totalUpdated + updated, false);
+
+                if (documents.size() < PAGE_SIZE && scanned < maxDocuments) {
+                    completed = true;
+                    break;
+                }
+            }
+
+            if (completed) {
+                saveState(stateRef, cursor, totalScanned + scanned, totalUpdated + updated, true);
+            }
+
+            System.out.println("✅ Backfill " + JOB_NAME + ": scanned " + scanned + ", updated " + updated
+                    + (completed ? " (completed)" : " (more to do)"));
+            return summary(cursor, scanned, updated, completed);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Normalized fields a stored request is missing, or that differ from what its
+     * date strings give now (e.g. legacy times normalized before they were read as lab-local)
+     */
+    private Map<String, Object> missingFields(DocumentSnapshot doc) {
+        Map<String, Object> fields = new HashMap<>();
+        BorrowRequest request = doc.toObject(BorrowRequest.class);
+        if (request == null) {
+            return fields;
+        }
+
+        if (BookingTimes.normalize(request, labZone)) {
+            if (request.getStartEpochMillis() != null) {
+                fields.put("startEpochMillis", request.getStartEpochMillis());
+            }
+            if (request.getEndEpochMillis() != null) {
+                fields.put("endEpochMillis", request.getEndEpochMillis());
+            }
+        }
+
+        if (ActiveBookingIndex.denormalizeItemIds(request)) {
+            fields.put("itemIds", request.getItemIds());
+        }
+        return fields;
+    }
+
+    private void saveState(DocumentReference stateRef, String cursor, long scanned, long updated, boolean completed)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> state = new HashMap<>();
+        state.put("lastDocumentId", cursor);
+        state.put("scanned", scanned);
+        state.put("updated", updated);
+        state.put("completed", completed);
+        state.put("updatedAt", LocalDateTime.now().toString());
+        stateRef.set(state).get();
+    }
+
+    private Map<String, Object> summary(String cursor, int scanned, int updated, boolean completed) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("job", JOB_NAME);
+        result.put("lastDocumentId", cursor);
+        result.put("scanned", scanned);
+        result.put("updated", updated);
+        result.put("completed", completed);
+        return result;
+    }
+}
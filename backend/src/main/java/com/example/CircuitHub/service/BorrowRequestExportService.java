@@ -0,0 +1,192 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Streams borrow history as NDJSON or CSV.
+ *
+ * Pages through borrowRequests, then borrowRequestsArchive, each in createdAt order
+ * with query cursors, and writes each page to the output stream before fetching the
+ * next, so memory use is bounded by one page and the client starts receiving rows
+ * immediately. A request is in only one of the two collections at a time.
+ */
+@Service
+public class BorrowRequestExportService {
+
+    private static final int PAGE_SIZE = 500;
+
+    private static final String[] CSV_COLUMNS = {
+        "id", "createdAt", "status", "borrowerId", "borrowerName", "borrowerEmail", "borrowerCourse",
+        "borrowerYear", "teacherAssigned", "items", "requestedQuantity", "startDate", "endDate",
+        "teacherApprovedBy", "labAssistantApprovedBy", "returnedAt", "isLate", "daysLate"
+    };
+
+    private final Firestore firestore;
+    private final ObjectMapper objectMapper;
+
+    public BorrowRequestExportService(ObjectMapper objectMapper) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Check the export parameters up front, before the response starts streaming
+     */
+    public void validate(String format, String createdFrom, String createdTo) {
+        if (!"ndjson".equals(format) && !"csv".equals(format)) {
+            throw new IllegalArgumentException("Format must be ndjson or csv");
+        }
+        try {
+            if (createdFrom != null && !createdFrom.isEmpty()) {
+                BookingTimes.parseEpochMillis(createdFrom);
+            }
+            if (createdTo != null && !createdTo.isEmpty()) {
+                BookingTimes.parseEpochMillis(createdTo);
+            }
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date format. Expected ISO format.");
+        }
+    }
+
+    /**
+     * Write every matching request, live and archived, to out, one page at a time
+     *
+     * @param format "ndjson" or "csv"
+     * @param status Only this status (optional)
+     * @param createdFrom Created at or after this ISO date/time (optional)
+     * @param createdTo Created before this ISO date/time (optional)
+     * @return Number of rows written
+     */
+    public long export(OutputStream out, String format, String status, String createdFrom, String createdTo)
+            throws IOException, ExecutionException, InterruptedException {
+
+        boolean csv = "csv".equals(format);
+        if (csv) {
+            writeLine(out, String.join(",", CSV_COLUMNS));
+        }
+
+        long rows = exportCollection(out, csv, firestore.collection("borrowRequests"), status, createdFrom, createdTo)
+                + exportCollection(out, csv, firestore.collection(BorrowRequestArchiveService.ARCHIVE_COLLECTION),
+                        status, createdFrom, createdTo);
+
+        System.out.println("✅ Exported " + rows + " borrow requests as " + format);
+        return rows;
+    }
+
+    private long exportCollection(OutputStream out, boolean csv, Query query, String status,
+                                  String createdFrom, String createdTo)
+            throws IOException, ExecutionException, InterruptedException {
+        if (status != null && !status.isEmpty()) {
+            query = query.whereEqualTo("status", status);
+        }
+        if (createdFrom != null && !createdFrom.isEmpty()) {
+            query = query.whereGreaterThanOrEqualTo("createdAt", new Date(BookingTimes.parseEpochMillis(createdFrom)));
+        }
+        if (createdTo != null && !createdTo.isEmpty()) {
+            query = query.whereLessThan("createdAt", new Date(BookingTimes.parseEpochMillis(createdTo)));
+        }
+        query = query.orderBy("createdAt").orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+
+        long rows = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = last != null ? query.startAfter(last) : query;
+            List<QueryDocumentSnapshot> documents = page.get().get().getDocuments();
+
+            for (QueryDocumentSnapshot doc : documents) {
+                BorrowRequest request = doc.toObject(BorrowRequest.class);
+                request.setId(doc.getId());
+                if (csv) {
+                    writeLine(out, toCsvRow(request));
+                } else {
+                    out.write(objectMapper.writeValueAsBytes(request));
+                    out.write('\n');
+                }
+            }
+            rows += documents.size();
+            out.flush();
+
+            if (documents.size() < PAGE_SIZE) {
+                break;
+            }
+            last = documents.get(documents.size() - 1);
+        }
+        return rows;
+    }
+
+    private String toCsvRow(BorrowRequest request) {
+        List<String> names = new ArrayList<>();
+        if (request.getItems() != null) {
+            for (Map<String, String> item : request.getItems()) {
+                // Stored quantities may be numbers or strings
+                Object quantity = ((Map<?, ?>) item).get("quantity");
+                names.add(item.get("name") + (quantity != null ? " x" + quantity : ""));
+            }
+        } else if (request.getItemName() != null) {
+            names.add(request.getItemName());
+        }
+
+        Object[] values = {
+            request.getId(),
+            request.getCreatedAt() != null ? request.getCreatedAt().toInstant().toString() : null,
+            request.getStatus(),
+            request.getBorrowerId(),
+            request.getBorrowerName(),
+            request.getBorrowerEmail(),
+            request.getBorrowerCourse(),
+            request.getBorrowerYear(),
+            request.getTeacherAssigned(),
+            String.join("; ", names),
+            request.getRequestedQuantity(),
+            request.getStartDate(),
+            request.getEndDate(),
+            request.getTeacherApprovedBy(),
+            request.getLabAssistantApprovedBy(),
+            request.getReturnedAt(),
+            request.getIsLate(),
+            request.getDaysLate()
+        };
+
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            row.append(csvField(values[i]));
+        }
+        return row.toString();
+    }
+
+    /**
+     * Quote a CSV field when it contains a separator, quote or line break
+     */
+    private static String csvField(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+}
@@ -1,32 +1,67 @@
 package com.example.CircuitHub.service;
 
+import com.example.CircuitHub.dto.BorrowRequestSummary;
 import com.example.CircuitHub.model.BorrowRequest;
 import com.example.CircuitHub.model.User;
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.firestore.*;
 import com.google.firebase.cloud.FirestoreClient;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @Service
 public class BorrowRequestService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    // Firestore allows at most 500 writes per batch
+    private static final int MAX_BATCH_WRITES = 500;
+    private static final int MAX_TRANSITION_ATTEMPTS = 3;
+    private static final long TRANSITION_RETRY_DELAY_MS = 50;
+    private static final List<String> TEACHER_PENDING_STATUSES = List.of("Pending", "Pending-Teacher");
+
     private final Firestore firestore;
     private final ItemAvailabilityService availabilityService;
+    private final ActiveBookingIndex bookingIndex;
+    private final ReservationLedger reservationLedger;
+    private final CounterService counterService;
+    private final IdempotencyKeys idempotencyKeys;
+    private final RequestEventOutbox eventOutbox;
+    private final RequestEventDispatcher eventDispatcher;
+    private final ZoneId labZone;
 
-    public BorrowRequestService(ItemAvailabilityService availabilityService) {
+    public BorrowRequestService(ItemAvailabilityService availabilityService, ActiveBookingIndex bookingIndex,
+                                ReservationLedger reservationLedger, CounterService counterService,
+                                IdempotencyKeys idempotencyKeys, RequestEventOutbox eventOutbox,
+                                RequestEventDispatcher eventDispatcher, ZoneId labZone) {
         this.firestore = FirestoreClient.getFirestore();
         this.availabilityService = availabilityService;
+        this.bookingIndex = bookingIndex;
+        this.reservationLedger = reservationLedger;
+        this.counterService = counterService;
+        this.idempotencyKeys = idempotencyKeys;
+        this.eventOutbox = eventOutbox;
+        this.eventDispatcher = eventDispatcher;
+        this.labZone = labZone;
     }
 
     /**
@@ -35,6 +70,27 @@ public class BorrowRequestService {
      * CRITICAL: This method performs a FINAL availability check immediately before saving
      */
     public BorrowRequest createRequest(BorrowRequest request) throws ExecutionException, InterruptedException {
+        return create(request, null, null);
+    }
+
+    /**
+     * Create a borrow request at most once per borrower and Idempotency-Key.
+     * A retry with the same key gets the original request back without re-running
+     * the availability checks or any writes.
+     *
+     * @param idempotencyKey Client-chosen key (optional; without it this is createRequest)
+     * @throws IdempotencyKeys.KeyConflictException if the key was used for a different request
+     */
+    public BorrowRequest createRequest(BorrowRequest request, String idempotencyKey) throws ExecutionException, InterruptedException {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return createRequest(request);
+        }
+        return idempotencyKeys.execute(request.getBorrowerId(), idempotencyKey.trim(),
+            IdempotencyKeys.fingerprint(request), (markerRef, marker) -> create(request, markerRef, marker));
+    }
+
+    private BorrowRequest create(BorrowRequest request, DocumentReference markerRef, Map<String, Object> marker)
+            throws ExecutionException, InterruptedException {
         // Set default quantity if not provided (for backward compatibility)
         if (request.getRequestedQuantity() == null || request.getRequestedQuantity() <= 0) {
             request.setRequestedQuantity(1);
@@ -45,7 +101,8 @@ public class BorrowRequestService {
         if (request.getItems() != null && !request.getItems().isEmpty()) {
             System.out.println("✅ Processing multi-item request with " + request.getItems().size() + " items");
             
-            // Validate availability for each item
+            // Build one demand per item line
+            List<ItemAvailabilityService.ItemDemand> demands = new ArrayList<>();
             for (Map<String, String> item : request.getItems()) {
                 String itemId = item.get("id");
                 String itemName = item.get("name");
@@ -56,34 +113,25 @@ public class BorrowRequestService {
                     throw new IllegalArgumentException("Item '" + itemName + "' is missing an ID. Please refresh and try again.");
                 }
                 
-                Integer quantity = 1; // Default quantity
-                
-                // Try to get quantity from the item map
-                try {
-                    if (item.containsKey("quantity")) {
-                        Object qtyObj = item.get("quantity");
-                        if (qtyObj instanceof String) {
-                            quantity = Integer.parseInt((String) qtyObj);
-                        } else if (qtyObj instanceof Number) {
-                            quantity = ((Number) qtyObj).intValue();
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    System.err.println("⚠️ Warning: Could not parse quantity for item " + itemName + ", using default 1");
-                }
-                
-                System.out.println("✅ Checking availability for item: " + itemName + " (ID: " + itemId + ", Qty: " + quantity + ")");
-                
-                ItemAvailabilityService.AvailabilityResult itemCheck = availabilityService.checkAvailability(
-                    itemId,
-                    quantity,
-                    request.getStartDate(),
-                    request.getEndDate()
-                );
-                
-                if (!itemCheck.isAvailable()) {
-                    throw new RuntimeException("Item '" + itemName + "' is not available: " + itemCheck.getMessage());
+                int quantity = ActiveBookingIndex.parseQuantity(item.get("quantity"));
+                demands.add(new ItemAvailabilityService.ItemDemand(itemId, itemName, quantity));
+            }
+            
+            // Check every line in one pass (single item fetch, no per-item scans)
+            ItemAvailabilityService.BatchAvailabilityResult batchCheck = availabilityService.checkAvailability(
+                demands,
+                request.getStartDate(),
+                request.getEndDate(),
+                null
+            );
+            
+            if (!batchCheck.isAvailable()) {
+                ItemAvailabilityService.LineResult failure = batchCheck.getFirstFailure();
+                if (failure == null) {
+                    throw new RuntimeException("Booking not available: " + batchCheck.getMessage());
                 }
+                throw new RuntimeException("Item '" + failure.getDemand().getItemName() + "' is not available: "
+                    + failure.getResult().getMessage());
             }
         } else if (request.getItemId() != null && !request.getItemId().trim().isEmpty()) {
             // ✅ Legacy single-item request support
@@ -112,6 +160,8 @@ public class BorrowRequestService {
         request.setRequestDate(LocalDateTime.now().toString());
         request.setCreatedAt(new Date());  // Use Date for Firestore Timestamp
         request.setStatus("Pending-Teacher");  // Initial status - waiting for teacher approval
+        BookingTimes.normalize(request, labZone);       // Epoch window used by availability checks
+        ActiveBookingIndex.denormalizeItemIds(request);
         
         // Initialize late tracking fields
         request.setIsLate(false);
@@ -130,8 +180,30 @@ public class BorrowRequestService {
             }
         }
         
-        // Save the request to Firestore
-        docRef.set(request).get();
+        // ✅ STEP 3: RESERVE AND SAVE ATOMICALLY
+        // The item ledgers are re-checked and written in the same transaction as the request,
+        // so concurrent requests for the same item can't both pass the check above.
+        // The "created" event (and idempotency marker) commit with it.
+        Map<DocumentReference, Map<String, Object>> alsoCreate = new LinkedHashMap<>();
+        alsoCreate.put(eventOutbox.newEventRef(), eventOutbox.event("created", request, null));
+        if (marker != null) {
+            marker.put("requestId", request.getId());
+            alsoCreate.put(markerRef, marker);
+        }
+        try {
+            reservationLedger.reserveAndCreate(docRef, request, alsoCreate);
+        } catch (ReservationLedger.ReservationConflictException e) {
+            System.err.println("❌ Reservation conflict for item " + e.getItemId() + ": " + e.getMessage());
+            throw new RuntimeException("Item '" + itemName(request, e.getItemId()) + "' is not available: " + e.getMessage());
+        }
+        // The transaction doesn't return its commit time, so the index takes it from the stored copy
+        DocumentSnapshot saved = docRef.get().get();
+        if (saved.exists()) {
+            BorrowRequest stored = saved.toObject(BorrowRequest.class);
+            stored.setId(saved.getId());
+            bookingIndex.upsert(stored, saved.getUpdateTime());
+        }
+        eventDispatcher.wakeUp();
         
         String itemInfo = request.getItems() != null && !request.getItems().isEmpty()
             ? request.getItems().size() + " items"
@@ -143,22 +215,155 @@ public class BorrowRequestService {
         return request;
     }
 
-    public List<BorrowRequest> getAllRequests() throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests").get();
-        List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-        return documents.stream()
-                .map(doc -> doc.toObject(BorrowRequest.class))
-                .collect(Collectors.toList());
+    /**
+     * Display name of an item line, falling back to the ID
+     */
+    private String itemName(BorrowRequest request, String itemId) {
+        if (request.getItems() != null) {
+            for (Map<String, String> item : request.getItems()) {
+                if (itemId.equals(item.get("id")) && item.get("name") != null) {
+                    return item.get("name");
+                }
+            }
+        }
+        return itemId;
+    }
+
+    public List<BorrowRequestSummary> getAllRequests() throws ExecutionException, InterruptedException {
+        return getSummaries(firestore.collection("borrowRequests"));
+    }
+
+    public CompletableFuture<List<BorrowRequestSummary>> getAllRequestsAsync() {
+        return getSummariesAsync(firestore.collection("borrowRequests"));
     }
     
-    public List<BorrowRequest> getRequestsByStatus(String status) throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests")
-                .whereEqualTo("status", status)
-                .get();
-        List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-        return documents.stream()
-                .map(doc -> doc.toObject(BorrowRequest.class))
-                .collect(Collectors.toList());
+    /**
+     * One page of requests ordered by createdAt (then document ID), with every filter
+     * pushed down to Firestore. Pass the previous page's nextCursor to continue.
+     *
+     * @param status Only this status (optional)
+     * @param borrowerId Only this borrower (optional)
+     * @param teacherId Only this assigned teacher (optional)
+     * @param createdFrom Created at or after this ISO date/time (optional)
+     * @param createdTo Created before this ISO date/time (optional)
+     * @param descending Newest first when true
+     * @param limit Page size, 1 to MAX_PAGE_SIZE
+     * @param cursor Opaque cursor from the previous page (optional)
+     * @throws IllegalArgumentException right away (not through the future) for a bad limit, date or cursor
+     */
+    public CompletableFuture<RequestPage> getRequestsPageAsync(
+            String status,
+            String borrowerId,
+            String teacherId,
+            String createdFrom,
+            String createdTo,
+            boolean descending,
+            int limit,
+            String cursor) {
+        return getPageAsync(firestore.collection("borrowRequests"),
+            status, borrowerId, teacherId, createdFrom, createdTo, descending, limit, cursor);
+    }
+
+    /**
+     * Same as getRequestsPageAsync, over the archive tier (closed requests moved out by
+     * BorrowRequestArchiveService)
+     */
+    public CompletableFuture<RequestPage> getArchivedRequestsPageAsync(
+            String status,
+            String borrowerId,
+            String teacherId,
+            String createdFrom,
+            String createdTo,
+            boolean descending,
+            int limit,
+            String cursor) {
+        return getPageAsync(firestore.collection(BorrowRequestArchiveService.ARCHIVE_COLLECTION),
+            status, borrowerId, teacherId, createdFrom, createdTo, descending, limit, cursor);
+    }
+
+    private CompletableFuture<RequestPage> getPageAsync(
+            CollectionReference collection,
+            String status,
+            String borrowerId,
+            String teacherId,
+            String createdFrom,
+            String createdTo,
+            boolean descending,
+            int limit,
+            String cursor) {
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        Query query = collection;
+        if (status != null && !status.isEmpty()) {
+            query = query.whereEqualTo("status", status);
+        }
+        if (borrowerId != null && !borrowerId.isEmpty()) {
+            query = query.whereEqualTo("borrowerId", borrowerId);
+        }
+        if (teacherId != null && !teacherId.isEmpty()) {
+            query = query.whereEqualTo("teacherId", teacherId);
+        }
+        try {
+            if (createdFrom != null && !createdFrom.isEmpty()) {
+                query = query.whereGreaterThanOrEqualTo("createdAt", new Date(BookingTimes.parseEpochMillis(createdFrom)));
+            }
+            if (createdTo != null && !createdTo.isEmpty()) {
+                query = query.whereLessThan("createdAt", new Date(BookingTimes.parseEpochMillis(createdTo)));
+            }
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date format. Expected ISO format.");
+        }
+
+        Query.Direction direction = descending ? Query.Direction.DESCENDING : Query.Direction.ASCENDING;
+        query = query.orderBy("createdAt", direction).orderBy(FieldPath.documentId(), direction);
+
+        if (cursor != null && !cursor.isEmpty()) {
+            PageCursor position = PageCursor.decode(cursor);
+            query = query.startAfter(new Date(position.createdAtMillis), position.documentId);
+        }
+
+        // Fetch one extra document to know whether another page exists
+        return FirestoreFutures.toCompletable(query.select(BorrowRequestSummary.FIELDS).limit(limit + 1).get())
+                .thenApply(snapshot -> toPage(snapshot.getDocuments(), limit));
+    }
+
+    private static RequestPage toPage(List<QueryDocumentSnapshot> documents, int limit) {
+        boolean hasMore = documents.size() > limit;
+        List<QueryDocumentSnapshot> pageDocuments = hasMore ? documents.subList(0, limit) : documents;
+
+        List<BorrowRequestSummary> requests = new ArrayList<>(pageDocuments.size());
+        for (QueryDocumentSnapshot doc : pageDocuments) {
+            BorrowRequestSummary request = doc.toObject(BorrowRequestSummary.class);
+            request.setId(doc.getId());
+            requests.add(request);
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            QueryDocumentSnapshot last = pageDocuments.get(pageDocuments.size() - 1);
+            Date createdAt = last.getDate("createdAt");
+            nextCursor = new PageCursor(createdAt != null ? createdAt.getTime() : 0, last.getId()).encode();
+        }
+        return new RequestPage(requests, nextCursor);
+    }
+
+    public List<BorrowRequestSummary> getRequestsByStatus(String status) throws ExecutionException, InterruptedException {
+        return getSummaries(firestore.collection("borrowRequests").whereEqualTo("status", status));
+    }
+
+    public List<BorrowRequestSummary> getRequestSummariesByBorrowerId(String borrowerId) throws ExecutionException, InterruptedException {
+        return getSummaries(firestore.collection("borrowRequests").whereEqualTo("borrowerId", borrowerId));
+    }
+
+    public CompletableFuture<List<BorrowRequestSummary>> getRequestsByStatusAsync(String status) {
+        return getSummariesAsync(firestore.collection("borrowRequests").whereEqualTo("status", status));
+    }
+
+    public CompletableFuture<List<BorrowRequestSummary>> getRequestSummariesByBorrowerIdAsync(String borrowerId) {
+        return getSummariesAsync(firestore.collection("borrowRequests").whereEqualTo("borrowerId", borrowerId));
     }
     
     public List<BorrowRequest> getRequestsByBorrowerId(String borrowerId) throws ExecutionException, InterruptedException {
@@ -170,29 +375,53 @@ public class BorrowRequestService {
                 .map(doc -> doc.toObject(BorrowRequest.class))
                 .collect(Collectors.toList());
     }
+
+    public CompletableFuture<List<BorrowRequest>> getRequestsByBorrowerIdAsync(String borrowerId) {
+        return FirestoreFutures.toCompletable(firestore.collection("borrowRequests")
+                        .whereEqualTo("borrowerId", borrowerId)
+                        .get())
+                .thenApply(snapshot -> snapshot.getDocuments().stream()
+                        .map(doc -> doc.toObject(BorrowRequest.class))
+                        .collect(Collectors.toList()));
+    }
     
-    // NEW: Get requests pending teacher approval
-    public List<BorrowRequest> getPendingTeacherApproval() throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests")
-                .whereEqualTo("status", "Pending")
-                .get();
-        List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-        return documents.stream()
-                .map(doc -> doc.toObject(BorrowRequest.class))
-                .collect(Collectors.toList());
+    // NEW: Get requests pending teacher approval (new requests start as Pending-Teacher, older ones as Pending)
+    public List<BorrowRequestSummary> getPendingTeacherApproval() throws ExecutionException, InterruptedException {
+        return getSummaries(firestore.collection("borrowRequests").whereIn("status", TEACHER_PENDING_STATUSES));
+    }
+
+    public CompletableFuture<List<BorrowRequestSummary>> getPendingTeacherApprovalAsync() {
+        return getSummariesAsync(firestore.collection("borrowRequests").whereIn("status", TEACHER_PENDING_STATUSES));
     }
     
     // NEW: Get requests pending lab assistant approval (teacher already approved)
-    public List<BorrowRequest> getPendingLabApproval() throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests")
-                .whereEqualTo("status", "Teacher-Approved")
-                .get();
-        List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-        return documents.stream()
-                .map(doc -> doc.toObject(BorrowRequest.class))
-                .collect(Collectors.toList());
+    public List<BorrowRequestSummary> getPendingLabApproval() throws ExecutionException, InterruptedException {
+        return getSummaries(firestore.collection("borrowRequests").whereEqualTo("status", "Teacher-Approved"));
+    }
+
+    public CompletableFuture<List<BorrowRequestSummary>> getPendingLabApprovalAsync() {
+        return getSummariesAsync(firestore.collection("borrowRequests").whereEqualTo("status", "Teacher-Approved"));
     }
     
+    /**
+     * Run a list query reading only the summary columns (Firestore field mask)
+     */
+    private List<BorrowRequestSummary> getSummaries(Query query) throws ExecutionException, InterruptedException {
+        return getSummariesAsync(query).get();
+    }
+
+    private CompletableFuture<List<BorrowRequestSummary>> getSummariesAsync(Query query) {
+        return FirestoreFutures.toCompletable(query.select(BorrowRequestSummary.FIELDS).get()).thenApply(snapshot -> {
+            List<BorrowRequestSummary> summaries = new ArrayList<>(snapshot.size());
+            for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                BorrowRequestSummary summary = doc.toObject(BorrowRequestSummary.class);
+                summary.setId(doc.getId());
+                summaries.add(summary);
+            }
+            return summaries;
+        });
+    }
+
     public BorrowRequest getRequestById(String id) throws ExecutionException, InterruptedException {
         DocumentReference docRef = firestore.collection("borrowRequests").document(id);
         ApiFuture<DocumentSnapshot> future = docRef.get();
@@ -205,164 +434,419 @@ public class BorrowRequestService {
         }
     }
 
+    /**
+     * Look up a request in the archive tier (completes with null when not found)
+     */
+    public CompletableFuture<BorrowRequest> getArchivedRequestByIdAsync(String id) {
+        DocumentReference docRef = firestore.collection(BorrowRequestArchiveService.ARCHIVE_COLLECTION).document(id);
+        return FirestoreFutures.toCompletable(docRef.get())
+                .thenApply(document -> document.exists() ? document.toObject(BorrowRequest.class) : null);
+    }
+
+    /**
+     * Non-blocking variant of getRequestById (completes with null when not found)
+     */
+    public CompletableFuture<BorrowRequest> getRequestByIdAsync(String id) {
+        DocumentReference docRef = firestore.collection("borrowRequests").document(id);
+        return FirestoreFutures.toCompletable(docRef.get())
+                .thenApply(document -> document.exists() ? document.toObject(BorrowRequest.class) : null);
+    }
+
     // NEW: Teacher approval method
     public BorrowRequest teacherApprove(String requestId, String teacherId, String teacherName) throws ExecutionException, InterruptedException {
-        DocumentReference docRef = firestore.collection("borrowRequests").document(requestId);
-        DocumentSnapshot document = docRef.get().get();
-        
-        if (document.exists()) {
-            BorrowRequest request = document.toObject(BorrowRequest.class);
-            
-            request.setStatus("Teacher-Approved");
+        return transition(requestId, "Teacher-Approved", (request, fields, now) -> {
             request.setTeacherApprovedBy(teacherName);
-            request.setTeacherApprovedAt(LocalDateTime.now().toString());
-            request.setUpdatedAt(LocalDateTime.now().toString());
-            
-            docRef.set(request).get();
-            return request;
-        } else {
-            throw new RuntimeException("Request not found");
-        }
+            request.setTeacherApprovedAt(now);
+            fields.put("teacherApprovedBy", teacherName);
+            fields.put("teacherApprovedAt", now);
+        });
     }
     
     // NEW: Lab assistant approval method
     public BorrowRequest labApprove(String requestId, String labAssistantId, String labAssistantName) throws ExecutionException, InterruptedException {
+        // Can only approve if teacher has already approved (enforced by RequestStatusMachine)
+        // Every item line is marked Borrowed in the same commit as the status change
+        return transition(requestId, "Approved", (r, fields, now) -> {
+            r.setLabAssistantApprovedBy(labAssistantName);
+            r.setLabAssistantApprovedAt(now);
+            fields.put("labAssistantApprovedBy", labAssistantName);
+            fields.put("labAssistantApprovedAt", now);
+        }, (r, fields, batch, now) -> {
+            addInventoryWrites(batch, r, onHandQuantities(ActiveBookingIndex.itemIdsOf(r)), true, now);
+            fields.put("takenQuantities", r.getTakenQuantities());
+        });
+    }
+
+    /**
+     * Extra fields set by a status transition, on both the request and the update map
+     */
+    @FunctionalInterface
+    private interface TransitionChanges {
+        void apply(BorrowRequest request, Map<String, Object> fields, String now);
+    }
+
+    /**
+     * Other documents written in the same commit as a status transition; may still add
+     * request fields, as they are added to the batch before the request update
+     */
+    @FunctionalInterface
+    private interface TransitionWrites {
+        void add(BorrowRequest request, Map<String, Object> fields, WriteBatch batch, String now)
+                throws ExecutionException, InterruptedException;
+    }
+
+    private BorrowRequest transition(String requestId, String targetStatus, TransitionChanges changes)
+            throws ExecutionException, InterruptedException {
+        return transition(requestId, targetStatus, changes, null);
+    }
+
+    /**
+     * Move a request to a new status with a field-level update.
+     * The change is checked against RequestStatusMachine and written with an updatedAt
+     * precondition, in one WriteBatch with any extra writes and the request event; if the
+     * document changed since it was read (or an item in the batch was deleted), it is
+     * re-read and retried.
+     *
+     * @param writes Extra writes committed atomically with the status change (optional)
+     * @throws IllegalStateException if the transition is not allowed or keeps conflicting
+     */
+    private BorrowRequest transition(String requestId, String targetStatus, TransitionChanges changes,
+                                     TransitionWrites writes) throws ExecutionException, InterruptedException {
         DocumentReference docRef = firestore.collection("borrowRequests").document(requestId);
-        DocumentSnapshot document = docRef.get().get();
-        
-        if (document.exists()) {
+
+        for (int attempt = 1; attempt <= MAX_TRANSITION_ATTEMPTS; attempt++) {
+            DocumentSnapshot document = docRef.get().get();
+            if (!document.exists()) {
+                throw new RuntimeException("Request not found");
+            }
+
             BorrowRequest request = document.toObject(BorrowRequest.class);
-            
-            // Can only approve if teacher has already approved
-            if (!"Teacher-Approved".equals(request.getStatus())) {
-                throw new RuntimeException("Request must be teacher-approved first");
+            request.setId(requestId);
+            RequestStatusMachine.check(request.getStatus(), targetStatus);
+            String previousStatus = request.getStatus();
+
+            String now = LocalDateTime.now().toString();
+            Map<String, Object> fields = new HashMap<>();
+            request.setStatus(targetStatus);
+            request.setUpdatedAt(now);
+            fields.put("status", targetStatus);
+            fields.put("updatedAt", now);
+            changes.apply(request, fields, now);
+
+            // Fill normalized fields only if the stored document lacks them
+            if (BookingTimes.normalize(request, labZone)) {
+                fields.put("startEpochMillis", request.getStartEpochMillis());
+                fields.put("endEpochMillis", request.getEndEpochMillis());
+            }
+            if (ActiveBookingIndex.denormalizeItemIds(request)) {
+                fields.put("itemIds", request.getItemIds());
+            }
+
+            WriteBatch batch = firestore.batch();
+            if (writes != null) {
+                writes.add(request, fields, batch, now);
+            }
+            batch.update(docRef, fields, Precondition.updatedAt(document.getUpdateTime()));
+            eventOutbox.append(batch, RequestEventOutbox.typeFor(targetStatus), request, previousStatus);
+
+            try {
+                List<WriteResult> writeResults = batch.commit().get();
+                // The request update is second to last, just before the event
+                bookingIndex.upsert(request, writeResults.get(writeResults.size() - 2).getUpdateTime());
+                eventDispatcher.wakeUp();
+                return request;
+            } catch (ExecutionException e) {
+                if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)
+                        && !FirestoreFutures.hasStatus(e, StatusCode.Code.NOT_FOUND)) {
+                    throw e;
+                }
+                System.err.println("⚠️ Request " + requestId + " changed during " + targetStatus
+                    + " transition, retrying (attempt " + attempt + ")");
+                Thread.sleep(TRANSITION_RETRY_DELAY_MS * attempt);
             }
-            
-            request.setStatus("Approved");
-            request.setLabAssistantApprovedBy(labAssistantName);
-            request.setLabAssistantApprovedAt(LocalDateTime.now().toString());
-            request.setUpdatedAt(LocalDateTime.now().toString());
-            
-            docRef.set(request).get();
-            
-            // Update item status to Borrowed
-            updateItemStatus(request.getItemId(), "Borrowed", request.getBorrowerId(), request.getRequestedQuantity());
-            
-            return request;
-        } else {
-            throw new RuntimeException("Request not found");
         }
+        throw new IllegalStateException("Request " + requestId + " is being modified concurrently. Please retry.");
     }
 
-    public BorrowRequest updateStatus(String id, String status) throws ExecutionException, InterruptedException {
-        DocumentReference docRef = firestore.collection("borrowRequests").document(id);
-        ApiFuture<DocumentSnapshot> future = docRef.get();
-        DocumentSnapshot document = future.get();
-        
-        if (document.exists()) {
+    /**
+     * Approve or deny many requests at one approval stage.
+     * Reads every request with a single getAll, checks each transition, and commits the
+     * valid ones, with their request events, in WriteBatches of up to MAX_BATCH_WRITES. Each write carries an
+     * updatedAt precondition, so a request changed since it was read fails instead of
+     * being overwritten.
+     *
+     * @param stage "teacher" (requests awaiting teacher approval) or "lab" (awaiting the lab's decision)
+     * @param approve true to approve, false to deny
+     * @param actorName Name recorded as the approver
+     * @return One result per distinct ID plus succeeded/failed counts
+     */
+    public Map<String, Object> bulkDecide(List<String> requestIds, String stage, boolean approve, String actorName)
+            throws ExecutionException, InterruptedException {
+
+        boolean teacherStage = "teacher".equals(stage);
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(requestIds));
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        for (String id : ids) {
+            results.put(id, bulkResult(id, false, "Request not found"));
+        }
+        if (ids.isEmpty()) {
+            return bulkSummary(results);
+        }
+
+        DocumentReference[] refs = new DocumentReference[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            refs[i] = firestore.collection("borrowRequests").document(ids.get(i));
+        }
+        List<DocumentSnapshot> documents = firestore.getAll(refs).get();
+
+        // Validate every transition and collect the writes
+        List<DocumentSnapshot> pending = new ArrayList<>();
+        List<BorrowRequest> updated = new ArrayList<>();
+        List<Map<String, Object>> changes = new ArrayList<>();
+        List<String> previousStatuses = new ArrayList<>();
+        String now = LocalDateTime.now().toString();
+        for (DocumentSnapshot document : documents) {
+            if (!document.exists()) {
+                continue;
+            }
             BorrowRequest request = document.toObject(BorrowRequest.class);
-            
-            // Update the status
-            request.setStatus(status);
-            request.setUpdatedAt(LocalDateTime.now().toString());
-            
-            // If returned, check if it's late and update user's late count
+            request.setId(document.getId());
+
+            // A request is at a stage when that stage's approval is an allowed edge from its status;
+            // denial is allowed from every stage, so it is limited to requests at this one
+            String stageApproval = teacherStage ? "Teacher-Approved" : "Approved";
+            String target = approve ? stageApproval : "Denied";
+            boolean allowed = RequestStatusMachine.isAllowed(request.getStatus(), stageApproval)
+                && RequestStatusMachine.isAllowed(request.getStatus(), target);
+            if (!allowed) {
+                results.put(request.getId(), bulkResult(request.getId(), false,
+                    "Cannot " + (approve ? "approve" : "deny") + " a request with status " + request.getStatus()));
+                continue;
+            }
+
+            previousStatuses.add(request.getStatus());
+            Map<String, Object> fields = new HashMap<>();
+            request.setStatus(target);
+            if (approve && teacherStage) {
+                request.setTeacherApprovedBy(actorName);
+                request.setTeacherApprovedAt(now);
+                fields.put("teacherApprovedBy", actorName);
+                fields.put("teacherApprovedAt", now);
+            } else if (approve) {
+                request.setLabAssistantApprovedBy(actorName);
+                request.setLabAssistantApprovedAt(now);
+                fields.put("labAssistantApprovedBy", actorName);
+                fields.put("labAssistantApprovedAt", now);
+            }
+            request.setUpdatedAt(now);
+            fields.put("status", request.getStatus());
+            fields.put("updatedAt", now);
+
+            pending.add(document);
+            updated.add(request);
+            changes.add(fields);
+        }
+
+        // Lab approvals also mark every item line Borrowed; read all their items at once
+        boolean borrowItems = approve && !teacherStage;
+        Map<String, Long> onHand = Collections.emptyMap();
+        if (borrowItems) {
+            Set<String> itemIds = new LinkedHashSet<>();
+            for (BorrowRequest request : updated) {
+                itemIds.addAll(ActiveBookingIndex.itemIdsOf(request));
+            }
+            onHand = onHandQuantities(itemIds);
+        }
+
+        // Commit in chunks of at most MAX_BATCH_WRITES writes (a request plus its item lines
+        // and event always share a chunk); a failed chunk fails only its own requests
+        int from = 0;
+        while (from < pending.size()) {
+            WriteBatch batch = firestore.batch();
+            int batchWrites = 0;
+            int to = from;
+            while (to < pending.size()) {
+                int writes = 2 + (borrowItems ? inventoryWriteCount(updated.get(to), onHand.keySet()) : 0);
+                if (to > from && batchWrites + writes > MAX_BATCH_WRITES) {
+                    break;
+                }
+                batchWrites += writes;
+                DocumentSnapshot document = pending.get(to);
+                if (borrowItems) {
+                    addInventoryWrites(batch, updated.get(to), onHand, true, now);
+                    changes.get(to).put("takenQuantities", updated.get(to).getTakenQuantities());
+                }
+                batch.update(document.getReference(), changes.get(to), Precondition.updatedAt(document.getUpdateTime()));
+                eventOutbox.append(batch, RequestEventOutbox.typeFor(updated.get(to).getStatus()),
+                    updated.get(to), previousStatuses.get(to));
+                to++;
+            }
+
+            List<WriteResult> writeResults;
+            try {
+                writeResults = batch.commit().get();
+            } catch (ExecutionException e) {
+                System.err.println("❌ Bulk " + stage + " decision batch failed: " + e.getMessage());
+                for (int i = from; i < to; i++) {
+                    String id = updated.get(i).getId();
+                    results.put(id, bulkResult(id, false, "Request changed while processing. Please retry."));
+                }
+                from = to;
+                continue;
+            }
+
+            // Each request's item writes come first, then the request and its event
+            int resultIndex = 0;
+            for (int i = from; i < to; i++) {
+                BorrowRequest request = updated.get(i);
+                resultIndex += borrowItems ? inventoryWriteCount(request, onHand.keySet()) : 0;
+                bookingIndex.upsert(request, writeResults.get(resultIndex).getUpdateTime());
+                resultIndex += 2;
+                Map<String, Object> result = bulkResult(request.getId(), true, null);
+                result.put("status", request.getStatus());
+                results.put(request.getId(), result);
+            }
+            from = to;
+        }
+        eventDispatcher.wakeUp();
+
+        System.out.println("✅ Bulk " + stage + (approve ? " approval" : " denial") + " of " + ids.size() + " requests");
+        return bulkSummary(results);
+    }
+
+    private Map<String, Object> bulkResult(String id, boolean success, String error) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", id);
+        result.put("success", success);
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
+
+    private Map<String, Object> bulkSummary(Map<String, Map<String, Object>> results) {
+        int succeeded = 0;
+        for (Map<String, Object> result : results.values()) {
+            if (Boolean.TRUE.equals(result.get("success"))) {
+                succeeded++;
+            }
+        }
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("results", new ArrayList<>(results.values()));
+        summary.put("succeeded", succeeded);
+        summary.put("failed", results.size() - succeeded);
+        return summary;
+    }
+
+    public BorrowRequest updateStatus(String id, String status) throws ExecutionException, InterruptedException {
+        BorrowRequest request = transition(id, status, (r, fields, now) -> {
+            // If returned, check if it's late
             if ("Returned".equals(status)) {
-                request.setReturnedAt(LocalDateTime.now().toString());
+                r.setReturnedAt(now);
+                fields.put("returnedAt", now);
                 
-                // Check if return is late
-                if (request.getEndDate() != null) {
+                if (r.getEndDate() != null || r.getEndEpochMillis() != null) {
                     try {
-                        LocalDate endDate = LocalDate.parse(request.getEndDate(), DateTimeFormatter.ISO_DATE_TIME);
-                        LocalDate returnDate = LocalDate.now();
+                        long endDay = BookingTimes.epochDay(BookingTimes.endMillis(r, labZone));
+                        long returnDay = BookingTimes.epochDay(BookingTimes.nowEpochMillis());
                         
-                        if (returnDate.isAfter(endDate)) {
-                            long daysLate = ChronoUnit.DAYS.between(endDate, returnDate);
-                            request.setIsLate(true);
-                            request.setDaysLate((int) daysLate);
-                            
-                            // Update user's late return count
-                            updateUserLateCount(request.getBorrowerId());
+                        if (returnDay > endDay) {
+                            r.setIsLate(true);
+                            r.setDaysLate((int) (returnDay - endDay));
+                            fields.put("isLate", true);
+                            fields.put("daysLate", r.getDaysLate());
                         }
                     } catch (Exception e) {
                         System.err.println("Error parsing dates for late check: " + e.getMessage());
                     }
                 }
-                
-                // Update item status back to Available
-                updateItemStatus(request.getItemId(), "Available", null, request.getRequestedQuantity());
             }
-            
-            docRef.set(request).get();
-            return request;
-        } else {
-            throw new RuntimeException("Request not found");
-        }
-    }
-    
-    // NEW: Update user's late return count
-    private void updateUserLateCount(String userId) throws ExecutionException, InterruptedException {
-        if (userId == null || userId.isEmpty()) {
-            return;
-        }
-        
-        DocumentReference userRef = firestore.collection("users").document(userId);
-        DocumentSnapshot userDoc = userRef.get().get();
-        
-        if (userDoc.exists()) {
-            User user = userDoc.toObject(User.class);
-            if (user != null) {
-                Integer currentCount = user.getLateReturnCount();
-                if (currentCount == null) {
-                    currentCount = 0;
-                }
-                
-                Map<String, Object> updates = new HashMap<>();
-                updates.put("lateReturnCount", currentCount + 1);
-                updates.put("lastLateReturnDate", LocalDateTime.now().toString());
-                
-                userRef.update(updates).get();
+        }, (r, fields, batch, now) -> {
+            // Put every item line back in stock in the same commit as the return
+            if ("Returned".equals(status)) {
+                addInventoryWrites(batch, r, onHandQuantities(ActiveBookingIndex.itemIdsOf(r)), false, now);
             }
-        }
-    }
-
-    private void updateItemStatus(String itemId, String status, String borrowerId, Integer requestedQuantity) throws ExecutionException, InterruptedException {
-        if (itemId == null || itemId.isEmpty()) {
-            return;
-        }
+        });
         
-        // Default to 1 if quantity not specified
-        if (requestedQuantity == null || requestedQuantity <= 0) {
-            requestedQuantity = 1;
-        }
+        // The late return count follows from the request event (LateReturnCountHandler);
+        // the reservation is released once the booking index drops the request
+        return request;
+    }
 
-        DocumentReference itemRef = firestore.collection("items").document(itemId);
-        DocumentSnapshot document = itemRef.get().get();
+    /**
+     * Add one quantity change per item line of the request to the batch:
+     * down by the line quantity when borrowed (never below zero), back up when returned.
+     * What a borrow actually took is recorded on the request (takenQuantities; the caller
+     * writes it with the request), and a return puts back exactly that.
+     *
+     * @param onHand Quantities of the items that still exist (see onHandQuantities), lowered
+     *               here as units go out; lines for other items are skipped
+     */
+    private void addInventoryWrites(WriteBatch batch, BorrowRequest request, Map<String, Long> onHand,
+                                    boolean borrowed, String now) {
+        // Note: We don't change the status field anymore since multiple people can borrow
+        // Instead, we just track quantity changes (as atomic increments)
+        Map<String, Integer> taken = new HashMap<>();
+        for (String itemId : ActiveBookingIndex.itemIdsOf(request)) {
+            if (!onHand.containsKey(itemId)) {
+                continue;
+            }
+            int quantity = Math.max(1, ActiveBookingIndex.requestedQuantity(request, itemId));
 
-        if (document.exists()) {
             Map<String, Object> updates = new HashMap<>();
-            Long currentQuantity = document.getLong("quantity");
-            if (currentQuantity == null) currentQuantity = 0L;
-
-            // Note: We don't change the status field anymore since multiple people can borrow
-            // Instead, we just track quantity changes
-
-            if ("Borrowed".equals(status)) {
-                // Decrease quantity by requested amount
-                long newQuantity = Math.max(0, currentQuantity - requestedQuantity);
-                updates.put("quantity", newQuantity);
+            if (borrowed) {
                 // Store the last borrower info
-                updates.put("lastBorrowedBy", borrowerId);
-                updates.put("lastBorrowedAt", LocalDateTime.now().toString());
+                updates.put("lastBorrowedBy", request.getBorrowerId());
+                updates.put("lastBorrowedAt", now);
+                // Only take out what is on hand, so the quantity never goes negative
+                long available = Math.max(0, onHand.get(itemId));
+                int units = (int) Math.min(quantity, available);
+                onHand.put(itemId, available - units);
+                taken.put(itemId, units);
+                counterService.adjustItemQuantity(batch, itemId, -units, updates);
+            } else {
+                updates.put("lastReturnedAt", now);
+                // Requests approved before takenQuantities existed took the full line quantity
+                Map<String, Integer> takenOnApproval = request.getTakenQuantities();
+                int units = takenOnApproval != null ? takenOnApproval.getOrDefault(itemId, 0) : quantity;
+                counterService.adjustItemQuantity(batch, itemId, units, updates);
+            }
+        }
+        if (borrowed) {
+            request.setTakenQuantities(taken);
+        }
+    }
 
-            } else if ("Available".equals(status)) {
-                // Increase quantity back by returned amount
-                updates.put("quantity", currentQuantity + requestedQuantity);
-                updates.put("lastReturnedAt", LocalDateTime.now().toString());
+    private int inventoryWriteCount(BorrowRequest request, Set<String> existingItems) {
+        int count = 0;
+        for (String itemId : ActiveBookingIndex.itemIdsOf(request)) {
+            if (existingItems.contains(itemId)) {
+                count++;
             }
+        }
+        return count;
+    }
 
-            itemRef.update(updates).get();
+    /**
+     * On-hand quantity of each of these items that can take a quantity update, read with a
+     * single getAll (sharded items write to their shards and need no item document)
+     */
+    private Map<String, Long> onHandQuantities(Collection<String> itemIds) throws ExecutionException, InterruptedException {
+        Map<String, Long> onHand = new HashMap<>();
+        if (itemIds.isEmpty()) {
+            return onHand;
+        }
+        DocumentReference[] refs = new DocumentReference[itemIds.size()];
+        int i = 0;
+        for (String itemId : itemIds) {
+            refs[i++] = firestore.collection("items").document(itemId);
         }
+        for (DocumentSnapshot item : firestore.getAll(refs).get()) {
+            if (item.exists() || counterService.isSharded(item.getId())) {
+                onHand.put(item.getId(), counterService.getItemQuantity(item));
+            }
+        }
+        return onHand;
     }
     
     public boolean deleteRequest(String id) throws ExecutionException, InterruptedException {
@@ -371,7 +855,16 @@ public class BorrowRequestService {
         DocumentSnapshot document = future.get();
         
         if (document.exists()) {
-            docRef.delete().get();
+            BorrowRequest request = document.toObject(BorrowRequest.class);
+            request.setId(id);
+
+            // Delete and record the "deleted" event (which releases the reservation) together
+            WriteBatch batch = firestore.batch();
+            batch.delete(docRef);
+            eventOutbox.append(batch, "deleted", request, request.getStatus());
+            List<WriteResult> writeResults = batch.commit().get();
+            bookingIndex.remove(id, writeResults.get(0).getUpdateTime());
+            eventDispatcher.wakeUp();
             return true;
         } else {
             return false;
@@ -380,6 +873,13 @@ public class BorrowRequestService {
     
     // NEW: Get user's borrow history with late return info
     public Map<String, Object> getUserBorrowHistory(String userId) throws ExecutionException, InterruptedException {
+        return getUserBorrowHistory(userId, false);
+    }
+
+    /**
+     * @param includeArchived Also read the user's requests from the archive tier
+     */
+    public Map<String, Object> getUserBorrowHistory(String userId, boolean includeArchived) throws ExecutionException, InterruptedException {
         // Get user info
         DocumentReference userRef = firestore.collection("users").document(userId);
         DocumentSnapshot userDoc = userRef.get().get();
@@ -396,6 +896,16 @@ public class BorrowRequestService {
         
         // Get all user's requests
         List<BorrowRequest> requests = getRequestsByBorrowerId(userId);
+        if (includeArchived) {
+            List<QueryDocumentSnapshot> archived = firestore.collection(BorrowRequestArchiveService.ARCHIVE_COLLECTION)
+                    .whereEqualTo("borrowerId", userId)
+                    .get().get().getDocuments();
+            requests = new ArrayList<>(requests);
+            for (QueryDocumentSnapshot doc : archived) {
+                requests.add(doc.toObject(BorrowRequest.class));
+            }
+            history.put("archivedRequests", archived.size());
+        }
         history.put("requests", requests);
         history.put("totalRequests", requests.size());
         
@@ -407,4 +917,64 @@ public class BorrowRequestService {
         
         return history;
     }
+
+    /**
+     * A page of requests plus the cursor for the next one (null on the last page)
+     */
+    public static class RequestPage {
+        private final List<BorrowRequestSummary> requests;
+        private final String nextCursor;
+
+        public RequestPage(List<BorrowRequestSummary> requests, String nextCursor) {
+            this.requests = requests;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<BorrowRequestSummary> getRequests() {
+            return requests;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("requests", requests);
+            map.put("nextCursor", nextCursor);
+            map.put("hasMore", nextCursor != null);
+            return map;
+        }
+    }
+
+    /**
+     * Position of the last document on a page: "createdAtMillis|documentId", URL-safe base64
+     */
+    static class PageCursor {
+        private final long createdAtMillis;
+        private final String documentId;
+
+        PageCursor(long createdAtMillis, String documentId) {
+            this.createdAtMillis = createdAtMillis;
+            this.documentId = documentId;
+        }
+
+        long getCreatedAtMillis() { return createdAtMillis; }
+        String getDocumentId() { return documentId; }
+
+        String encode() {
+            String raw = createdAtMillis + "|" + documentId;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                return new PageCursor(Long.parseLong(raw.substring(0, separator)), raw.substring(separator + 1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+    }
 }
@@ -0,0 +1,287 @@
+package com.example.CircuitHub.service;
+
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Atomic counters on Firestore documents.
+ *
+ * Every update is a single blind write using FieldValue.increment, so concurrent
+ * updates never overwrite each other and no read is needed first.
+ *
+ * Fields that change too often for one document (item quantity of the items listed in
+ * circuithub.counters.sharded-items) are spread over shard documents in the
+ * owner's counterShards subcollection. The current value is the field plus the
+ * sum of its shards (see getValue/getValues); a scheduled job folds the shards back
+ * into the field so clients reading the document directly stay close to current.
+ * Code that needs an item's quantity reads it through here (getItemQuantity and
+ * friends), never from the item document's field alone.
+ */
+@Service
+public class CounterService {
+
+    static final String SHARDS_COLLECTION = "counterShards";
+
+    private final Firestore firestore;
+    private final Set<String> shardedItems;
+    private final int shardCount;
+
+    public CounterService(@Value("${circuithub.counters.sharded-items:}") String shardedItems,
+                          @Value("${circuithub.counters.shards:8}") int shardCount) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.shardedItems = new LinkedHashSet<>();
+        for (String itemId : shardedItems.split(",")) {
+            if (!itemId.isBlank()) {
+                this.shardedItems.add(itemId.trim());
+            }
+        }
+        this.shardCount = Math.max(1, shardCount);
+    }
+
+    /**
+     * Add delta to a numeric field and set the other fields in the same write
+     *
+     * @param alsoSet Extra fields written alongside the increment (optional)
+     * @return false if the document does not exist
+     */
+    public boolean increment(DocumentReference ref, String field, long delta, Map<String, Object> alsoSet)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> updates = new HashMap<>();
+        if (alsoSet != null) {
+            updates.putAll(alsoSet);
+        }
+        updates.put(field, FieldValue.increment(delta));
+
+        try {
+            ref.update(updates).get();
+            return true;
+        } catch (ExecutionException e) {
+            if (FirestoreFutures.hasStatus(e, StatusCode.Code.NOT_FOUND)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Add an item quantity change (positive when stock comes back, negative when it goes out)
+     * to a batch, so it commits together with the caller's other writes.
+     * For hot items the increment and the other fields go to a random shard, leaving the
+     * item document untouched. Any other item must exist when the batch commits, or the
+     * whole batch fails with NOT_FOUND.
+     */
+    public void adjustItemQuantity(WriteBatch batch, String itemId, long delta, Map<String, Object> alsoSet) {
+        DocumentReference itemRef = firestore.collection("items").document(itemId);
+        if (shardedItems.contains(itemId)) {
+            batch.set(randomShard(itemRef, "quantity"), shardWrite("quantity", delta, alsoSet), SetOptions.merge());
+        } else {
+            Map<String, Object> updates = new HashMap<>();
+            if (alsoSet != null) {
+                updates.putAll(alsoSet);
+            }
+            updates.put("quantity", FieldValue.increment(delta));
+            batch.update(itemRef, updates);
+        }
+    }
+
+    public boolean isSharded(String itemId) {
+        return shardedItems.contains(itemId);
+    }
+
+    public boolean hasShardedItems() {
+        return !shardedItems.isEmpty();
+    }
+
+    /**
+     * One randomly chosen shard of a counter (created by the first merge write)
+     */
+    private DocumentReference randomShard(DocumentReference owner, String field) {
+        int shard = ThreadLocalRandom.current().nextInt(shardCount);
+        return owner.collection(SHARDS_COLLECTION).document(field + "-" + shard);
+    }
+
+    private static Map<String, Object> shardWrite(String field, long delta, Map<String, Object> alsoSet) {
+        Map<String, Object> data = new HashMap<>();
+        if (alsoSet != null) {
+            data.putAll(alsoSet);
+        }
+        data.put("field", field);
+        data.put("value", FieldValue.increment(delta));
+        return data;
+    }
+
+    /**
+     * Current value of a counter: the document field plus any shard values not folded in yet
+     */
+    public long getValue(DocumentReference ref, String field) throws ExecutionException, InterruptedException {
+        Map<String, Long> values = getValues(List.of(ref), field);
+        return values.getOrDefault(ref.getId(), 0L);
+    }
+
+    /**
+     * Current values of the same counter on several documents (one getAll for the fields)
+     *
+     * @return Document ID -> value, for the documents that exist
+     */
+    public Map<String, Long> getValues(List<DocumentReference> refs, String field)
+            throws ExecutionException, InterruptedException {
+        Map<String, Long> values = new LinkedHashMap<>();
+        if (refs.isEmpty()) {
+            return values;
+        }
+
+        List<DocumentSnapshot> documents = firestore.getAll(refs.toArray(new DocumentReference[0])).get();
+        for (DocumentSnapshot document : documents) {
+            if (document.exists()) {
+                Long value = document.getLong(field);
+                values.put(document.getId(), value != null ? value : 0L);
+            }
+        }
+
+        for (DocumentReference ref : refs) {
+            if (values.containsKey(ref.getId()) && hasShards(ref)) {
+                values.merge(ref.getId(), sumShards(ref, field).total, Long::sum);
+            }
+        }
+        return values;
+    }
+
+    public long getItemQuantity(String itemId) throws ExecutionException, InterruptedException {
+        return getValue(firestore.collection("items").document(itemId), "quantity");
+    }
+
+    /**
+     * Quantity of an item document the caller already read, plus its unfolded shards
+     */
+    public long getItemQuantity(DocumentSnapshot itemDoc) throws ExecutionException, InterruptedException {
+        long value = fieldValue(itemDoc, "quantity");
+        if (!isSharded(itemDoc.getId())) {
+            return value;
+        }
+        return value + sumShards(shardQuery(itemDoc.getReference(), "quantity").get().get().getDocuments()).total;
+    }
+
+    /**
+     * Same, reading the shards through the transaction. Firestore wants every read of a
+     * transaction before its first write, so call this before writing anything.
+     */
+    public long getItemQuantity(Transaction transaction, DocumentSnapshot itemDoc)
+            throws ExecutionException, InterruptedException {
+        long value = fieldValue(itemDoc, "quantity");
+        if (!isSharded(itemDoc.getId())) {
+            return value;
+        }
+        return value + sumShards(transaction.get(shardQuery(itemDoc.getReference(), "quantity")).get().getDocuments()).total;
+    }
+
+    /**
+     * Unfolded quantity shard totals of the sharded items (itemId -> total), for callers that
+     * read whole item lists and add them to the quantity field themselves
+     */
+    public CompletableFuture<Map<String, Long>> getItemShardTotalsAsync() {
+        return getItemShardTotalsAsync(shardedItems);
+    }
+
+    /**
+     * Same, for the sharded ones among these items. The shard queries all go out at
+     * once, so this takes about as long as the slowest one.
+     */
+    public CompletableFuture<Map<String, Long>> getItemShardTotalsAsync(Collection<String> itemIds) {
+        Map<String, CompletableFuture<QuerySnapshot>> queries = new LinkedHashMap<>();
+        for (String itemId : itemIds) {
+            if (!shardedItems.contains(itemId)) {
+                continue;
+            }
+            queries.put(itemId, FirestoreFutures.toCompletable(
+                    shardQuery(firestore.collection("items").document(itemId), "quantity").get()));
+        }
+        return CompletableFuture.allOf(queries.values().toArray(new CompletableFuture[0])).thenApply(done -> {
+            Map<String, Long> totals = new HashMap<>();
+            for (Map.Entry<String, CompletableFuture<QuerySnapshot>> query : queries.entrySet()) {
+                totals.put(query.getKey(), sumShards(query.getValue().join().getDocuments()).total);
+            }
+            return totals;
+        });
+    }
+
+    /**
+     * Move the shard values of every sharded item into its quantity field.
+     * The shards are decremented by what was read rather than reset, so increments
+     * landing while this runs are kept.
+     */
+    @Scheduled(fixedDelayString = "${circuithub.counters.fold-interval-ms:60000}")
+    public void foldShards() {
+        for (String itemId : shardedItems) {
+            try {
+                fold(firestore.collection("items").document(itemId), "quantity");
+            } catch (Exception e) {
+                System.err.println("⚠️ Failed to fold quantity shards for item " + itemId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void fold(DocumentReference owner, String field) throws ExecutionException, InterruptedException {
+        ShardSum sum = sumShards(owner, field);
+        if (sum.shards.isEmpty()) {
+            return;
+        }
+
+        WriteBatch batch = firestore.batch();
+        for (Map.Entry<DocumentReference, Long> shard : sum.shards.entrySet()) {
+            batch.update(shard.getKey(), "value", FieldValue.increment(-shard.getValue()));
+        }
+        batch.update(owner, field, FieldValue.increment(sum.total));
+        batch.commit().get();
+
+        System.out.println("✅ Folded " + sum.total + " into " + owner.getPath() + "." + field);
+    }
+
+    private boolean hasShards(DocumentReference ref) {
+        return shardedItems.contains(ref.getId()) && "items".equals(ref.getParent().getId());
+    }
+
+    private ShardSum sumShards(DocumentReference owner, String field) throws ExecutionException, InterruptedException {
+        return sumShards(shardQuery(owner, field).get().get().getDocuments());
+    }
+
+    private static Query shardQuery(DocumentReference owner, String field) {
+        return owner.collection(SHARDS_COLLECTION).whereEqualTo("field", field);
+    }
+
+    private static long fieldValue(DocumentSnapshot document, String field) {
+        Long value = document.exists() ? document.getLong(field) : null;
+        return value != null ? value : 0L;
+    }
+
+    private static ShardSum sumShards(List<QueryDocumentSnapshot> shards) {
+        ShardSum sum = new ShardSum();
+        for (QueryDocumentSnapshot shard : shards) {
+            Long value = shard.getLong("value");
+            if (value != null && value != 0) {
+                sum.total += value;
+                sum.shards.put(shard.getReference(), value);
+            }
+        }
+        return sum;
+    }
+
+    private static class ShardSum {
+        long total;
+        final Map<DocumentReference, Long> shards = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.CircuitHub.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.FirestoreException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bridges Firestore's ApiFuture to CompletableFuture so service calls can be
+ * chained without parking a request thread on get().
+ */
+public final class FirestoreFutures {
+
+    private FirestoreFutures() {
+    }
+
+    /**
+     * CompletableFuture completed by the ApiFuture's callback; cancelling it cancels the Firestore call
+     */
+    public static <T> CompletableFuture<T> toCompletable(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                apiFuture.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        // The callback only completes the future, so it can run on the thread that finished the call
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, Runnable::run);
+        return future;
+    }
+
+    /**
+     * The underlying failure of a completed future (without CompletionException/ExecutionException wrappers)
+     */
+    public static Throwable rootCause(Throwable t) {
+        Throwable cause = t;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Whether a Firestore failure (anywhere in the cause chain) carries the given RPC status code
+     */
+    public static boolean hasStatus(Throwable t, StatusCode.Code code) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException
+                    && ((ApiException) cause).getStatusCode().getCode() == code) {
+                return true;
+            }
+            if (cause instanceof FirestoreException && ((FirestoreException) cause).getStatus() != null
+                    && ((FirestoreException) cause).getStatus().getCode().name().equals(code.name())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
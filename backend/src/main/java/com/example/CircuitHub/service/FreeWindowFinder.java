@@ -0,0 +1,101 @@
+package com.example.CircuitHub.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the earliest windows in which a quantity of an item is free.
+ *
+ * Uses the same packed start/end events as PeakConcurrency: one sort, then a
+ * single sweep that tracks the booked level and the free runs between the
+ * points where it rises above (total - requested). Inside each free run, windows
+ * start on the first slot boundary and follow each other back to back (each
+ * start rounded up to a slot boundary) until the run or the limit is used up.
+ */
+public final class FreeWindowFinder {
+
+    private FreeWindowFinder() {
+    }
+
+    /**
+     * Earliest windows of the given duration inside [from, until) where quantity units are free
+     *
+     * @param bookings Bookings of the item that overlap [from, until)
+     * @param totalQuantity Units the item has in total
+     * @param quantity Units requested
+     * @param duration Window length in millis
+     * @param slot Windows start on multiples of this (epoch millis)
+     * @param limit Maximum number of windows to return
+     */
+    public static List<Window> find(List<ActiveBookingIndex.Booking> bookings, int totalQuantity, int quantity,
+                                    long duration, long slot, long from, long until, int limit) {
+        List<Window> windows = new ArrayList<>();
+        int threshold = totalQuantity - quantity;
+        long rangeEnd = until - from > BookingEvents.MAX_RANGE ? from + BookingEvents.MAX_RANGE : until;
+        if (threshold < 0 || duration <= 0 || slot <= 0 || limit <= 0 || rangeEnd - from < duration) {
+            return windows;
+        }
+
+        long[] events = BookingEvents.encode(bookings, from, rangeEnd);
+
+        int level = 0;
+        boolean free = true;
+        long runStart = from;
+        int i = 0;
+        while (i < events.length && windows.size() < limit) {
+            long offset = BookingEvents.offset(events[i]);
+            // Apply every event at this instant before looking at the level
+            while (i < events.length && BookingEvents.offset(events[i]) == offset) {
+                level += BookingEvents.delta(events[i]);
+                i++;
+            }
+
+            long time = from + offset;
+            boolean nowFree = level <= threshold;
+            if (free && !nowFree) {
+                addWindows(windows, runStart, time, duration, slot, limit);
+                free = false;
+            } else if (!free && nowFree) {
+                runStart = time;
+                free = true;
+            }
+        }
+
+        if (free) {
+            addWindows(windows, runStart, rangeEnd, duration, slot, limit);
+        }
+        return windows;
+    }
+
+    private static void addWindows(List<Window> windows, long runStart, long runEnd, long duration,
+                                   long slot, int limit) {
+        long start = alignUp(runStart, slot);
+        while (windows.size() < limit && runEnd - start >= duration) {
+            windows.add(new Window(start, start + duration, runEnd));
+            start = alignUp(start + duration, slot);
+        }
+    }
+
+    private static long alignUp(long time, long slot) {
+        return Math.floorDiv(time + slot - 1, slot) * slot;
+    }
+
+    /**
+     * A free window [start, end) in epoch millis; the units stay free until freeUntil
+     */
+    public static final class Window {
+        private final long start;
+        private final long end;
+        private final long freeUntil;
+
+        Window(long start, long end, long freeUntil) {
+            this.start = start;
+            this.end = end;
+            this.freeUntil = freeUntil;
+        }
+
+        public long getStart() { return start; }
+        public long getEnd() { return end; }
+        public long getFreeUntil() { return freeUntil; }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Idempotency-Key handling for borrow request creation.
+ *
+ * Keys are scoped to the borrower. The first request with a key runs; a retry
+ * with the same key and payload gets the request created the first time, and a
+ * duplicate arriving while the first is still running waits for it instead of
+ * running again. Results are held in a bounded, expiring in-memory map and backed
+ * by an idempotencyKeys marker document created in the same transaction as the
+ * request, so replays also work on other instances and after a restart.
+ * Failed attempts are not remembered; the client may retry them.
+ */
+@Component
+public class IdempotencyKeys {
+
+    static final String COLLECTION = "idempotencyKeys";
+    private static final int MAX_ENTRIES = 10_000;
+    private static final long TTL_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int MAX_KEY_LENGTH = 200;
+
+    private final Firestore firestore;
+
+    // "borrowerId:key" -> outcome, least recently used evicted first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public IdempotencyKeys() {
+        this.firestore = FirestoreClient.getFirestore();
+    }
+
+    /**
+     * Creates the request; must create markerRef with the given data (plus requestId)
+     * in the same transaction as the request
+     */
+    @FunctionalInterface
+    public interface Creation {
+        BorrowRequest create(DocumentReference markerRef, Map<String, Object> marker)
+                throws ExecutionException, InterruptedException;
+    }
+
+    /**
+     * Run creation once per borrower and key
+     *
+     * @param fingerprint Hash of the request payload (see fingerprint)
+     * @return The created request, or the one created by an earlier call with this key
+     * @throws KeyConflictException if the key was used for a different payload
+     */
+    public BorrowRequest execute(String borrowerId, String key, String fingerprint, Creation creation)
+            throws ExecutionException, InterruptedException {
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String scope = borrowerId + ":" + key;
+        long now = System.currentTimeMillis();
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(scope);
+            if (entry != null && entry.expiresAt < now) {
+                entries.remove(scope);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(fingerprint, now + TTL_MILLIS);
+                entries.put(scope, entry);
+                owner = true;
+            }
+        }
+
+        if (!entry.fingerprint.equals(fingerprint)) {
+            throw new KeyConflictException("Idempotency-Key was already used for a different request");
+        }
+        if (!owner) {
+            System.out.println("🔁 Replaying borrow request for Idempotency-Key " + key);
+            return await(entry.result);
+        }
+
+        try {
+            DocumentReference markerRef = firestore.collection(COLLECTION).document(sha256(scope));
+            BorrowRequest request = replayFromMarker(markerRef, fingerprint, now);
+            if (request == null) {
+                try {
+                    request = creation.create(markerRef, marker(borrowerId, key, fingerprint, now));
+                } catch (ExecutionException e) {
+                    // Another instance created the marker first: return its request
+                    if (!FirestoreFutures.hasStatus(e, StatusCode.Code.ALREADY_EXISTS)) {
+                        throw e;
+                    }
+                    request = replayFromMarker(markerRef, fingerprint, now);
+                    if (request == null) {
+                        throw e;
+                    }
+                }
+            }
+            entry.result.complete(request);
+            return request;
+        } catch (ExecutionException | InterruptedException | RuntimeException e) {
+            synchronized (entries) {
+                entries.remove(scope, entry);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Hash of the fields that make two create calls the same request
+     */
+    public static String fingerprint(BorrowRequest request) {
+        StringBuilder text = new StringBuilder();
+        text.append(request.getBorrowerId()).append('|')
+            .append(request.getStartDate()).append('|')
+            .append(request.getEndDate()).append('|')
+            .append(request.getBorrowDate()).append('|')
+            .append(request.getStartTime()).append('|')
+            .append(request.getReturnTime()).append('|');
+        for (String itemId : new TreeSet<>(ActiveBookingIndex.itemIdsOf(request))) {
+            text.append(itemId).append('x').append(ActiveBookingIndex.requestedQuantity(request, itemId)).append(',');
+        }
+        return sha256(text.toString());
+    }
+
+    /**
+     * Request recorded by an unexpired marker, or null if there is none
+     */
+    private BorrowRequest replayFromMarker(DocumentReference markerRef, String fingerprint, long now)
+            throws ExecutionException, InterruptedException {
+        DocumentSnapshot marker = markerRef.get().get();
+        if (!marker.exists()) {
+            return null;
+        }
+        Date expiresAt = marker.getDate("expiresAt");
+        if (expiresAt != null && expiresAt.getTime() < now) {
+            markerRef.delete(Precondition.updatedAt(marker.getUpdateTime())).get();
+            return null;
+        }
+        if (!fingerprint.equals(marker.getString("fingerprint"))) {
+            throw new KeyConflictException("Idempotency-Key was already used for a different request");
+        }
+
+        String requestId = marker.getString("requestId");
+        DocumentSnapshot document = firestore.collection("borrowRequests").document(requestId).get().get();
+        if (!document.exists()) {
+            throw new KeyConflictException("The request created with this Idempotency-Key no longer exists");
+        }
+        BorrowRequest request = document.toObject(BorrowRequest.class);
+        request.setId(document.getId());
+        System.out.println("🔁 Replaying borrow request " + requestId + " from idempotency marker");
+        return request;
+    }
+
+    private static Map<String, Object> marker(String borrowerId, String key, String fingerprint, long now) {
+        Map<String, Object> marker = new HashMap<>();
+        marker.put("borrowerId", borrowerId);
+        marker.put("key", key);
+        marker.put("fingerprint", fingerprint);
+        marker.put("createdAt", new Date(now));
+        marker.put("expiresAt", new Date(now + TTL_MILLIS));  // Usable as a Firestore TTL field
+        return marker;
+    }
+
+    private static BorrowRequest await(CompletableFuture<BorrowRequest> result)
+            throws ExecutionException, InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            // Give the duplicate the same error the original got
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static final class Entry {
+        private final String fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<BorrowRequest> result = new CompletableFuture<>();
+
+        Entry(String fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * An Idempotency-Key reused for a different request
+     */
+    public static class KeyConflictException extends RuntimeException {
+        public KeyConflictException(String message) {
+            super(message);
+        }
+    }
+}
@@ -8,10 +8,9 @@ import com.google.firebase.cloud.FirestoreClient;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -21,19 +20,35 @@ import java.util.concurrent.ExecutionException;
  * - Requested quantity vs available quantity
  * 
  * FIXED: Now properly handles multi-item requests and Pending-Teacher status
+ * Bookings are read from ActiveBookingIndex instead of scanning borrowRequests
  */
 @Service
 public class ItemAvailabilityService {
 
+    private static final int MAX_CALENDAR_DAYS = 731;
+    private static final int MAX_GRID_DAYS = 62;
+    private static final int MAX_SLOT_RESULTS = 50;
+    private static final int MAX_SLOT_DAYS = 7;
+
     private final Firestore firestore;
+    private final ActiveBookingIndex bookingIndex;
+    private final SlotAvailabilityIndex slotIndex;
+    private final CounterService counterService;
+    private final ItemCatalogCache catalogCache;
 
-    public ItemAvailabilityService() {
+    public ItemAvailabilityService(ActiveBookingIndex bookingIndex, SlotAvailabilityIndex slotIndex,
+                                   CounterService counterService, ItemCatalogCache catalogCache) {
         this.firestore = FirestoreClient.getFirestore();
+        this.bookingIndex = bookingIndex;
+        this.slotIndex = slotIndex;
+        this.counterService = counterService;
+        this.catalogCache = catalogCache;
     }
 
     /**
      * Get availability calendar for an item over a date range
-     * Returns a map of dates to available quantities
+     * Returns a map of dates to available quantities, plus the same figures as an
+     * array starting at startDate
      */
     public Map<String, Object> getAvailabilityCalendar(
             String itemId,
@@ -54,7 +69,7 @@ public class ItemAvailabilityService {
             return result;
         }
 
-        int totalQuantity = item.getQuantity();
+        int totalQuantity = capacityOf(item);
         result.put("itemId", itemId);
         result.put("itemName", item.getName());
         result.put("totalQuantity", totalQuantity);
@@ -70,135 +85,264 @@ public class ItemAvailabilityService {
             return result;
         }
 
+        if (endDate.isBefore(startDate)) {
+            result.put("error", "End date must not be before start date");
+            return result;
+        }
+        long days = endDate.toEpochDay() - startDate.toEpochDay() + 1;
+        if (days > MAX_CALENDAR_DAYS) {
+            result.put("error", "Date range is too large. Maximum is " + MAX_CALENDAR_DAYS + " days");
+            return result;
+        }
+
         // Get all active bookings for this item
-        List<BorrowRequest> activeBookings = getActiveBookingsForItem(itemId);
+        List<ActiveBookingIndex.Booking> activeBookings = bookingIndex.getBookings(itemId);
 
-        // Calculate availability for each date
-        Map<String, Integer> dateAvailability = new HashMap<>();
-        LocalDate currentDate = startDate;
-        
-        while (!currentDate.isAfter(endDate)) {
-            int bookedQuantity = calculateBookedQuantityForDate(activeBookings, currentDate, itemId);
-            int availableQuantity = totalQuantity - bookedQuantity;
-            dateAvailability.put(currentDate.toString(), availableQuantity);
-            currentDate = currentDate.plusDays(1);
+        // availability[i] is the quantity available on startDate + i days
+        int[] availability = AvailabilityCalendar.availablePerDay(
+            activeBookings, totalQuantity, startDate.toEpochDay(), (int) days
+        );
+
+        Map<String, Integer> dateAvailability = new LinkedHashMap<>();
+        for (int i = 0; i < availability.length; i++) {
+            dateAvailability.put(startDate.plusDays(i).toString(), availability[i]);
         }
 
         result.put("dateAvailability", dateAvailability);
+        result.put("startDate", startDate.toString());
+        result.put("endDate", endDate.toString());
+        result.put("availability", availability);
         return result;
     }
 
     /**
-     * Calculate how many items are booked on a specific date
-     * ✅ FIXED: Now checks items array for multi-item requests
+     * Availability grid for several items (or the whole catalog) over a date range.
+     * Returns an item x day matrix of available quantities, built from the booking
+     * index in one pass per item instead of one calendar call per item.
+     *
+     * @param itemIds Item IDs to include, or null/empty for every item
      */
-    private int calculateBookedQuantityForDate(List<BorrowRequest> bookings, LocalDate date, String itemId) {
-        int totalBooked = 0;
-        
-        for (BorrowRequest booking : bookings) {
-            try {
-                LocalDate bookingStart = parseDate(booking.getStartDate());
-                LocalDate bookingEnd = parseDate(booking.getEndDate());
-                
-                // Check if date falls within booking period (inclusive)
-                if (!date.isBefore(bookingStart) && !date.isAfter(bookingEnd)) {
-                    // ✅ Check both legacy itemId and items array
-                    int quantity = getRequestedQuantityForItem(booking, itemId);
-                    totalBooked += quantity;
-                }
-            } catch (DateTimeParseException e) {
-                System.err.println("Failed to parse dates for booking " + booking.getId());
-            }
+    public Map<String, Object> getAvailabilityGrid(
+            List<String> itemIds,
+            String startDateStr,
+            String endDateStr) throws ExecutionException, InterruptedException {
+
+        Map<String, Object> result = new HashMap<>();
+
+        LocalDate startDate;
+        LocalDate endDate;
+        try {
+            startDate = LocalDate.parse(startDateStr);
+            endDate = LocalDate.parse(endDateStr);
+        } catch (DateTimeParseException e) {
+            result.put("error", "Invalid date format. Expected YYYY-MM-DD");
+            return result;
         }
-        
-        return totalBooked;
-    }
 
-    /**
-     * ✅ NEW: Get requested quantity for a specific item from a request
-     * Handles both legacy single-item and new multi-item requests
-     */
-    private int getRequestedQuantityForItem(BorrowRequest request, String itemId) {
-        // Check items array first (multi-item requests)
-        if (request.getItems() != null && !request.getItems().isEmpty()) {
-            for (Map<String, String> item : request.getItems()) {
-                String reqItemId = item.get("id");
-                if (itemId.equals(reqItemId)) {
-                    try {
-                        Object qtyObj = item.get("quantity");
-                        if (qtyObj instanceof String) {
-                            return Integer.parseInt((String) qtyObj);
-                        } else if (qtyObj instanceof Number) {
-                            return ((Number) qtyObj).intValue();
-                        }
-                    } catch (Exception e) {
-                        return 1; // Default
-                    }
-                    return 1; // Default if no quantity specified
+        if (endDate.isBefore(startDate)) {
+            result.put("error", "End date must not be before start date");
+            return result;
+        }
+        long days = endDate.toEpochDay() - startDate.toEpochDay() + 1;
+        if (days > MAX_GRID_DAYS) {
+            result.put("error", "Date range is too large. Maximum is " + MAX_GRID_DAYS + " days");
+            return result;
+        }
+
+        List<Item> items = new ArrayList<>();
+        if (itemIds == null || itemIds.isEmpty()) {
+            // Whole catalog: cached copies, quantities already include unfolded shards
+            items.addAll(catalogCache.getCatalog().get().getItems());
+        } else {
+            Set<String> uniqueIds = new LinkedHashSet<>(itemIds);
+            Map<String, Item> found = getItems(uniqueIds);
+            for (String itemId : uniqueIds) {
+                if (found.containsKey(itemId)) {
+                    items.add(found.get(itemId));
                 }
             }
-            return 0; // Item not in this request
         }
-        
-        // Legacy single-item request
-        if (itemId.equals(request.getItemId())) {
-            Integer quantity = request.getRequestedQuantity();
-            return (quantity != null && quantity > 0) ? quantity : 1;
+
+        List<Map<String, Object>> rows = new ArrayList<>(items.size());
+        int[][] availability = new int[items.size()][];
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            int capacity = capacityOf(item);
+            Map<String, Object> row = new HashMap<>();
+            row.put("itemId", item.getId());
+            row.put("itemName", item.getName());
+            row.put("totalQuantity", capacity);
+            rows.add(row);
+
+            availability[i] = AvailabilityCalendar.availablePerDay(
+                bookingIndex.getBookings(item.getId()),
+                capacity,
+                startDate.toEpochDay(),
+                (int) days
+            );
         }
-        
-        return 0;
+
+        result.put("startDate", startDate.toString());
+        result.put("endDate", endDate.toString());
+        result.put("days", days);
+        result.put("items", rows);
+        result.put("availability", availability);
+        return result;
     }
 
     /**
-     * Get all active bookings (Pending-Teacher, Teacher-Approved, Approved) for an item
-     * ✅ FIXED: Now includes "Pending-Teacher" status and checks items array
+     * Slot-level availability for an item over a few days
+     * Returns the available quantity for every SLOT_MINUTES slot and the minimum per day,
+     * both read from the item's slot occupancy tree
      */
-    private List<BorrowRequest> getActiveBookingsForItem(String itemId) throws ExecutionException, InterruptedException {
-        // ✅ FIXED: Include all pending statuses
-        List<String> activeStatuses = Arrays.asList("Pending", "Pending-Teacher", "Teacher-Approved", "Approved");
-        List<BorrowRequest> activeBookings = new ArrayList<>();
-
-        // Get ALL borrow requests (we'll filter by item ourselves)
-        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests").get();
-        List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-
-        for (QueryDocumentSnapshot doc : documents) {
-            BorrowRequest booking = doc.toObject(BorrowRequest.class);
-            
-            // Only consider active statuses
-            if (!activeStatuses.contains(booking.getStatus())) {
-                continue;
-            }
+    public Map<String, Object> getSlotAvailability(
+            String itemId,
+            String startDateStr,
+            int days) throws ExecutionException, InterruptedException {
 
-            // ✅ FIXED: Check if this request contains the item (either in itemId or items array)
-            if (requestContainsItem(booking, itemId)) {
-                activeBookings.add(booking);
-            }
+        Map<String, Object> result = new HashMap<>();
+
+        if (itemId == null || itemId.isEmpty()) {
+            result.put("error", "Item ID is required");
+            return result;
+        }
+        if (days <= 0 || days > MAX_SLOT_DAYS) {
+            result.put("error", "Days must be between 1 and " + MAX_SLOT_DAYS);
+            return result;
         }
 
-        return activeBookings;
+        LocalDate startDate;
+        try {
+            startDate = LocalDate.parse(startDateStr);
+        } catch (DateTimeParseException e) {
+            result.put("error", "Invalid date format. Expected YYYY-MM-DD");
+            return result;
+        }
+
+        Item item = getItem(itemId);
+        if (item == null) {
+            result.put("error", "Item not found");
+            return result;
+        }
+        int totalQuantity = capacityOf(item);
+
+        SlotOccupancy occupancy = slotIndex.getOccupancy(itemId);
+        long rangeStart = BookingTimes.toEpochMillis(startDate);
+        long rangeEnd = rangeStart + days * BookingTimes.MILLIS_PER_DAY;
+        if (!occupancy.covers(rangeStart, rangeEnd)) {
+            result.put("error", "Date range must fall within the next " + SlotAvailabilityIndex.HORIZON_DAYS + " days");
+            return result;
+        }
+
+        int firstSlot = occupancy.slotOf(rangeStart);
+        int[] available = occupancy.bookedSlots(firstSlot, firstSlot + days * SlotAvailabilityIndex.SLOTS_PER_DAY);
+        for (int i = 0; i < available.length; i++) {
+            available[i] = totalQuantity - available[i];
+        }
+
+        int[] minAvailablePerDay = new int[days];
+        for (int day = 0; day < days; day++) {
+            int from = firstSlot + day * SlotAvailabilityIndex.SLOTS_PER_DAY;
+            minAvailablePerDay[day] = totalQuantity
+                - occupancy.maxBookedInSlots(from, from + SlotAvailabilityIndex.SLOTS_PER_DAY);
+        }
+
+        result.put("itemId", itemId);
+        result.put("itemName", item.getName());
+        result.put("totalQuantity", totalQuantity);
+        result.put("startDate", startDate.toString());
+        result.put("days", days);
+        result.put("slotMinutes", SlotAvailabilityIndex.SLOT_MINUTES);
+        result.put("availability", available);
+        result.put("minAvailablePerDay", minAvailablePerDay);
+        return result;
     }
 
     /**
-     * ✅ NEW: Check if a request contains a specific item
-     * Handles both legacy single-item and new multi-item requests
+     * Search for the earliest windows where the requested quantity is free
+     * Walks the item's bookings in the search range once instead of probing window by window
+     *
+     * @param fromStr Start of the search (ISO date/time), or null for now
+     * @param horizonDays How many days ahead of fromStr to search
+     * @param limit Maximum number of windows to return
      */
-    private boolean requestContainsItem(BorrowRequest request, String itemId) {
-        // Check items array first (multi-item requests)
-        if (request.getItems() != null && !request.getItems().isEmpty()) {
-            for (Map<String, String> item : request.getItems()) {
-                if (itemId.equals(item.get("id"))) {
-                    return true;
-                }
-            }
+    public Map<String, Object> findAvailableSlots(
+            String itemId,
+            int requestedQuantity,
+            int durationMinutes,
+            String fromStr,
+            int horizonDays,
+            int limit) throws ExecutionException, InterruptedException {
+
+        Map<String, Object> result = new HashMap<>();
+
+        if (itemId == null || itemId.isEmpty()) {
+            result.put("error", "Item ID is required");
+            return result;
         }
-        
-        // Check legacy itemId field
-        if (itemId.equals(request.getItemId())) {
-            return true;
+        if (requestedQuantity <= 0) {
+            result.put("error", "Requested quantity must be at least 1");
+            return result;
         }
-        
-        return false;
+        if (durationMinutes <= 0) {
+            result.put("error", "Duration must be at least 1 minute");
+            return result;
+        }
+        if (horizonDays <= 0 || horizonDays > MAX_CALENDAR_DAYS) {
+            result.put("error", "Search horizon must be between 1 and " + MAX_CALENDAR_DAYS + " days");
+            return result;
+        }
+        if (limit <= 0 || limit > MAX_SLOT_RESULTS) {
+            result.put("error", "Limit must be between 1 and " + MAX_SLOT_RESULTS);
+            return result;
+        }
+
+        long from;
+        try {
+            from = fromStr == null || fromStr.isEmpty()
+                ? BookingTimes.nowEpochMillis()
+                : BookingTimes.parseEpochMillis(fromStr);
+        } catch (DateTimeParseException e) {
+            result.put("error", "Invalid date format. Expected ISO format.");
+            return result;
+        }
+        long until = from + horizonDays * BookingTimes.MILLIS_PER_DAY;
+
+        Item item = getItem(itemId);
+        if (item == null) {
+            result.put("error", "Item not found");
+            return result;
+        }
+        int totalQuantity = capacityOf(item);
+
+        List<ActiveBookingIndex.Booking> bookings = bookingIndex.findOverlapping(itemId, from, until, null);
+        List<FreeWindowFinder.Window> windows = FreeWindowFinder.find(
+            bookings, totalQuantity, requestedQuantity, durationMinutes * 60_000L,
+            SlotAvailabilityIndex.SLOT_MILLIS, from, until, limit
+        );
+
+        List<Map<String, Object>> slots = new ArrayList<>(windows.size());
+        for (FreeWindowFinder.Window window : windows) {
+            Map<String, Object> slot = new HashMap<>();
+            slot.put("startDate", BookingTimes.fromEpochMillis(window.getStart()).toString());
+            slot.put("endDate", BookingTimes.fromEpochMillis(window.getEnd()).toString());
+            slot.put("freeUntil", BookingTimes.fromEpochMillis(window.getFreeUntil()).toString());
+            slots.add(slot);
+        }
+
+        result.put("itemId", itemId);
+        result.put("itemName", item.getName());
+        result.put("totalQuantity", totalQuantity);
+        result.put("requestedQuantity", requestedQuantity);
+        result.put("durationMinutes", durationMinutes);
+        result.put("searchFrom", BookingTimes.fromEpochMillis(from).toString());
+        result.put("searchUntil", BookingTimes.fromEpochMillis(until).toString());
+        result.put("slots", slots);
+        if (totalQuantity < requestedQuantity) {
+            result.put("message", String.format("Insufficient total quantity. Requested: %d, Total available: %d",
+                requestedQuantity, totalQuantity));
+        }
+        return result;
     }
 
     /**
@@ -233,17 +377,17 @@ public class ItemAvailabilityService {
         }
 
         // Parse dates
-        LocalDateTime requestStart;
-        LocalDateTime requestEnd;
+        long windowStart;
+        long windowEnd;
         try {
-            requestStart = parseDateTime(startDate);
-            requestEnd = parseDateTime(endDate);
+            windowStart = BookingTimes.parseEpochMillis(startDate);
+            windowEnd = BookingTimes.parseEpochMillis(endDate);
         } catch (DateTimeParseException e) {
             return new AvailabilityResult(false, "Invalid date format. Expected ISO format.", 0, new ArrayList<>());
         }
 
-        // Validate date logic
-        if (requestEnd.isBefore(requestStart)) {
+        // Validate date logic (an empty window would overlap nothing and always pass)
+        if (windowEnd <= windowStart) {
             return new AvailabilityResult(false, "End date must be after start date", 0, new ArrayList<>());
         }
 
@@ -253,7 +397,22 @@ public class ItemAvailabilityService {
             return new AvailabilityResult(false, "Item not found", 0, new ArrayList<>());
         }
 
-        int totalItemQuantity = item.getQuantity();
+        return evaluate(item, requestedQuantity, windowStart, windowEnd, excludeRequestId);
+    }
+
+    /**
+     * Check one item against its overlapping active bookings.
+     * Shared by the single-item and batch checks; the item is already loaded.
+     */
+    private AvailabilityResult evaluate(
+            Item item,
+            int requestedQuantity,
+            long windowStart,
+            long windowEnd,
+            String excludeRequestId) throws ExecutionException, InterruptedException {
+
+        String itemId = item.getId();
+        int totalItemQuantity = capacityOf(item);
         if (totalItemQuantity < requestedQuantity) {
             return new AvailabilityResult(
                 false,
@@ -264,15 +423,33 @@ public class ItemAvailabilityService {
             );
         }
 
+        // Fast path: the slot max never undercounts, so if it leaves room the request fits.
+        // Anything else (exclusions, outside the horizon, not enough room) gets the exact sweep below.
+        if (excludeRequestId == null) {
+            SlotOccupancy occupancy = slotIndex.getOccupancy(itemId);
+            if (occupancy.covers(windowStart, windowEnd)) {
+                int slotAvailable = totalItemQuantity - occupancy.maxBooked(windowStart, windowEnd);
+                if (slotAvailable >= requestedQuantity) {
+                    String message = String.format(
+                        "Item is available. Requested: %d, Available: %d, Total: %d",
+                        requestedQuantity, slotAvailable, totalItemQuantity
+                    );
+                    return new AvailabilityResult(true, message, slotAvailable, new ArrayList<>());
+                }
+            }
+        }
+
         // Get all overlapping bookings
-        List<BorrowRequest> overlappingBookings = getOverlappingBookings(
-            itemId, requestStart, requestEnd, excludeRequestId
+        List<ActiveBookingIndex.Booking> overlappingBookings = bookingIndex.findOverlapping(
+            itemId, windowStart, windowEnd, excludeRequestId
         );
 
         System.out.println("🔍 Checking availability for item " + itemId + ": Found " + overlappingBookings.size() + " overlapping bookings");
 
-        // Calculate how many items are already booked during this period
-        int maxBookedDuringPeriod = calculateMaxBookedQuantity(overlappingBookings, itemId);
+        // Calculate the peak quantity booked at any instant during this period
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(overlappingBookings, windowStart, windowEnd);
+        int maxBookedDuringPeriod = peak.getQuantity();
+        List<BorrowRequest> conflictingRequests = toRequests(overlappingBookings);
         
         // Available quantity is total minus the maximum booked
         int availableQuantity = totalItemQuantity - maxBookedDuringPeriod;
@@ -285,11 +462,13 @@ public class ItemAvailabilityService {
         if (availableQuantity < requestedQuantity) {
             String message = String.format(
                 "Insufficient available quantity during the requested period. " +
-                "Requested: %d, Available: %d, Already booked: %d (from %d conflicting bookings)",
-                requestedQuantity, availableQuantity, maxBookedDuringPeriod, overlappingBookings.size()
+                "Requested: %d, Available: %d, Already booked: %d between %s and %s (from %d conflicting bookings)",
+                requestedQuantity, availableQuantity, maxBookedDuringPeriod,
+                BookingTimes.fromEpochMillis(peak.getStart()), BookingTimes.fromEpochMillis(peak.getEnd()),
+                overlappingBookings.size()
             );
             System.err.println("❌ " + message);
-            return new AvailabilityResult(false, message, availableQuantity, overlappingBookings);
+            return new AvailabilityResult(false, message, availableQuantity, conflictingRequests, peak);
         }
 
         // Success!
@@ -298,7 +477,7 @@ public class ItemAvailabilityService {
             requestedQuantity, availableQuantity, totalItemQuantity
         );
         System.out.println("✅ " + message);
-        return new AvailabilityResult(true, message, availableQuantity, overlappingBookings);
+        return new AvailabilityResult(true, message, availableQuantity, conflictingRequests, peak);
     }
 
     /**
@@ -313,148 +492,157 @@ public class ItemAvailabilityService {
     }
 
     /**
-     * Get overlapping bookings for an item within a time range
-     * ✅ FIXED: Now checks items array and includes all pending statuses
+     * Batch validation for multi-item requests.
+     * Loads every item with a single getAll and checks each line against the
+     * booking index; lines for the same item are combined before checking.
+     *
+     * @param demands The item lines being requested
+     * @param startDate When the borrowing starts
+     * @param endDate When the borrowing ends
+     * @param excludeRequestId Optional - exclude a specific request ID (for updates)
+     * @return BatchAvailabilityResult with one result per line and the first failing line
      */
-    private List<BorrowRequest> getOverlappingBookings(
-            String itemId,
-            LocalDateTime requestStart,
-            LocalDateTime requestEnd,
+    public BatchAvailabilityResult checkAvailability(
+            List<ItemDemand> demands,
+            String startDate,
+            String endDate,
             String excludeRequestId) throws ExecutionException, InterruptedException {
 
-        List<BorrowRequest> overlapping = new ArrayList<>();
+        if (demands == null || demands.isEmpty()) {
+            return BatchAvailabilityResult.invalid("No items specified in the request");
+        }
 
-        // ✅ FIXED: Include all active statuses including Pending-Teacher
-        List<String> activeStatuses = Arrays.asList("Pending", "Pending-Teacher", "Teacher-Approved", "Approved");
+        if (startDate == null || endDate == null) {
+            return BatchAvailabilityResult.invalid("Start date and end date are required");
+        }
 
-        // Get ALL requests (we need to check items array)
-        ApiFuture<QuerySnapshot> future = firestore.collection("borrowRequests").get();
-        List<QueryDocumentSnapshot> documents = future.get().getDocuments();
+        long windowStart;
+        long windowEnd;
+        try {
+            windowStart = BookingTimes.parseEpochMillis(startDate);
+            windowEnd = BookingTimes.parseEpochMillis(endDate);
+        } catch (DateTimeParseException e) {
+            return BatchAvailabilityResult.invalid("Invalid date format. Expected ISO format.");
+        }
 
-        for (QueryDocumentSnapshot doc : documents) {
-            BorrowRequest booking = doc.toObject(BorrowRequest.class);
+        if (windowEnd <= windowStart) {
+            return BatchAvailabilityResult.invalid("End date must be after start date");
+        }
 
-            // Skip excluded request (for update scenarios)
-            if (excludeRequestId != null && excludeRequestId.equals(booking.getId())) {
-                continue;
+        // Combine lines that ask for the same item
+        Map<String, Integer> quantityByItem = new LinkedHashMap<>();
+        for (ItemDemand demand : demands) {
+            if (demand.getItemId() != null && !demand.getItemId().isEmpty()) {
+                quantityByItem.merge(demand.getItemId(), demand.getQuantity(), Integer::sum);
             }
+        }
 
-            // Only consider active bookings
-            if (!activeStatuses.contains(booking.getStatus())) {
-                continue;
-            }
+        Map<String, Item> items = getItems(quantityByItem.keySet());
 
-            // ✅ FIXED: Check if this request contains the item
-            if (!requestContainsItem(booking, itemId)) {
-                continue;
-            }
+        // Bookings come from the in-memory index, so the items are evaluated one after another
+        Map<String, AvailabilityResult> resultByItem = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : quantityByItem.entrySet()) {
+            Item item = items.get(entry.getKey());
+            resultByItem.put(entry.getKey(), item == null
+                ? new AvailabilityResult(false, "Item not found", 0, new ArrayList<>())
+                : evaluate(item, entry.getValue(), windowStart, windowEnd, excludeRequestId));
+        }
 
-            // Parse booking dates
-            try {
-                LocalDateTime bookingStart = parseDateTime(booking.getStartDate());
-                LocalDateTime bookingEnd = parseDateTime(booking.getEndDate());
-
-                // ✅ CRITICAL FIX: Check for TIME overlap, not just date overlap
-                // Overlap occurs if: requestStart < bookingEnd AND requestEnd > bookingStart
-                if (requestStart.isBefore(bookingEnd) && requestEnd.isAfter(bookingStart)) {
-                    System.out.println("⚠️ Found overlapping booking: " + booking.getId() + 
-                                     " (" + booking.getStatus() + ") - " + 
-                                     bookingStart + " to " + bookingEnd);
-                    overlapping.add(booking);
-                }
-            } catch (DateTimeParseException e) {
-                System.err.println("Failed to parse dates for booking " + booking.getId() + ": " + e.getMessage());
+        List<LineResult> lines = new ArrayList<>(demands.size());
+        for (ItemDemand demand : demands) {
+            AvailabilityResult result;
+            if (demand.getItemId() == null || demand.getItemId().isEmpty()) {
+                result = new AvailabilityResult(false, "Item ID is required", 0, new ArrayList<>());
+            } else if (demand.getQuantity() <= 0) {
+                result = new AvailabilityResult(false, "Requested quantity must be at least 1", 0, new ArrayList<>());
+            } else {
+                result = resultByItem.get(demand.getItemId());
             }
+            lines.add(new LineResult(demand, result));
         }
 
-        return overlapping;
+        return new BatchAvailabilityResult(lines);
     }
 
     /**
-     * Calculate the maximum quantity booked at any point during overlapping bookings
-     * ✅ FIXED: Now properly sums quantities for the specific item
+     * Load several items in one round trip; the shard reads of sharded items go out
+     * alongside the getAll instead of one after another per item
      */
-    private int calculateMaxBookedQuantity(List<BorrowRequest> overlappingBookings, String itemId) {
-        if (overlappingBookings.isEmpty()) {
-            return 0;
+    private Map<String, Item> getItems(Collection<String> itemIds) throws ExecutionException, InterruptedException {
+        Map<String, Item> items = new HashMap<>();
+        if (itemIds.isEmpty()) {
+            return items;
         }
 
-        // Sum all overlapping quantities for this specific item
-        int totalBooked = 0;
-        for (BorrowRequest booking : overlappingBookings) {
-            int quantity = getRequestedQuantityForItem(booking, itemId);
-            totalBooked += quantity;
-            System.out.println("  📦 Request " + booking.getId() + " books " + quantity + " of item " + itemId);
+        DocumentReference[] refs = new DocumentReference[itemIds.size()];
+        int i = 0;
+        for (String itemId : itemIds) {
+            refs[i++] = firestore.collection("items").document(itemId);
         }
 
-        return totalBooked;
+        CompletableFuture<Map<String, Long>> shardTotals = counterService.getItemShardTotalsAsync(itemIds);
+        List<DocumentSnapshot> documents = firestore.getAll(refs).get();
+        Map<String, Long> unfolded = shardTotals.get();
+        for (DocumentSnapshot document : documents) {
+            Item item = toItem(document, unfolded);
+            if (item != null) {
+                items.put(document.getId(), item);
+            }
+        }
+        return items;
     }
 
     /**
-     * Get item from Firestore
-     * ✅ FIXED: Ensure ID is set
+     * Units the item has in total, borrowed ones included: what bookings are checked against.
+     * Items saved before totalQuantity existed only know what is on hand; the units out on
+     * approved requests are added back to that.
      */
-    private Item getItem(String itemId) throws ExecutionException, InterruptedException {
-        DocumentReference docRef = firestore.collection("items").document(itemId);
-        ApiFuture<DocumentSnapshot> future = docRef.get();
-        DocumentSnapshot document = future.get();
-
-        if (document.exists()) {
-            Item item = document.toObject(Item.class);
-            if (item != null && (item.getId() == null || item.getId().isEmpty())) {
-                item.setId(document.getId());
-            }
-            return item;
+    private int capacityOf(Item item) throws ExecutionException, InterruptedException {
+        if (item.getTotalQuantity() != null) {
+            return item.getTotalQuantity();
         }
-        return null;
+        int onHand = item.getQuantity() != null ? item.getQuantity() : 0;
+        return Math.max(0, onHand) + bookingIndex.getLentQuantity(item.getId());
     }
 
     /**
-     * Parse date string to LocalDate (for date-only operations)
+     * Requests behind a list of bookings (for reporting conflicts)
      */
-    private LocalDate parseDate(String dateStr) {
-        if (dateStr == null) {
-            throw new DateTimeParseException("Date string is null", "", 0);
+    private List<BorrowRequest> toRequests(List<ActiveBookingIndex.Booking> bookings) {
+        List<BorrowRequest> requests = new ArrayList<>(bookings.size());
+        for (ActiveBookingIndex.Booking booking : bookings) {
+            requests.add(booking.getRequest());
         }
+        return requests;
+    }
 
-        try {
-            // Try parsing as LocalDateTime first
-            return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_DATE_TIME).toLocalDate();
-        } catch (DateTimeParseException e) {
-            try {
-                // Try parsing as LocalDate
-                return LocalDate.parse(dateStr);
-            } catch (DateTimeParseException e2) {
-                throw new DateTimeParseException("Unable to parse date: " + dateStr, dateStr, 0);
-            }
-        }
+    /**
+     * Get item from Firestore (document and shards read together)
+     * ✅ FIXED: Ensure ID is set
+     */
+    private Item getItem(String itemId) throws ExecutionException, InterruptedException {
+        CompletableFuture<Map<String, Long>> shardTotals = counterService.getItemShardTotalsAsync(List.of(itemId));
+        ApiFuture<DocumentSnapshot> future = firestore.collection("items").document(itemId).get();
+        DocumentSnapshot document = future.get();
+        return toItem(document, shardTotals.get());
     }
 
     /**
-     * Parse date string to LocalDateTime
-     * Supports multiple formats
+     * Item of a document, with its quantity including unfolded shards, or null if it doesn't exist
      */
-    private LocalDateTime parseDateTime(String dateStr) {
-        if (dateStr == null) {
-            throw new DateTimeParseException("Date string is null", "", 0);
+    private static Item toItem(DocumentSnapshot document, Map<String, Long> shardTotals) {
+        if (!document.exists()) {
+            return null;
         }
-
-        // Try ISO 8601 format first
-        try {
-            return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_DATE_TIME);
-        } catch (DateTimeParseException e) {
-            // Try other common formats
-            try {
-                return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-            } catch (DateTimeParseException e2) {
-                // If just date, assume start of day
-                try {
-                    return LocalDateTime.parse(dateStr + "T00:00:00");
-                } catch (DateTimeParseException e3) {
-                    throw new DateTimeParseException("Unable to parse date: " + dateStr, dateStr, 0);
-                }
+        Item item = document.toObject(Item.class);
+        if (item != null) {
+            if (item.getId() == null || item.getId().isEmpty()) {
+                item.setId(document.getId());
             }
+            Long quantity = document.getLong("quantity");
+            item.setQuantity((int) ((quantity != null ? quantity : 0L) + shardTotals.getOrDefault(document.getId(), 0L)));
         }
+        return item;
     }
 
     /**
@@ -465,12 +653,19 @@ public class ItemAvailabilityService {
         private final String message;
         private final int availableQuantity;
         private final List<BorrowRequest> conflictingBookings;
+        private final PeakConcurrency.Peak peak;
 
         public AvailabilityResult(boolean available, String message, int availableQuantity, List<BorrowRequest> conflictingBookings) {
+            this(available, message, availableQuantity, conflictingBookings, null);
+        }
+
+        public AvailabilityResult(boolean available, String message, int availableQuantity,
+                                  List<BorrowRequest> conflictingBookings, PeakConcurrency.Peak peak) {
             this.available = available;
             this.message = message;
             this.availableQuantity = availableQuantity;
             this.conflictingBookings = conflictingBookings;
+            this.peak = peak;
         }
 
         public boolean isAvailable() {
@@ -489,12 +684,139 @@ public class ItemAvailabilityService {
             return conflictingBookings;
         }
 
+        public PeakConcurrency.Peak getPeak() {
+            return peak;
+        }
+
         public Map<String, Object> toMap() {
             Map<String, Object> map = new HashMap<>();
             map.put("available", available);
             map.put("message", message);
             map.put("availableQuantity", availableQuantity);
             map.put("conflictingBookingsCount", conflictingBookings.size());
+            if (peak != null && peak.getQuantity() > 0) {
+                map.put("peakBookedQuantity", peak.getQuantity());
+                map.put("peakStart", BookingTimes.fromEpochMillis(peak.getStart()).toString());
+                map.put("peakEnd", BookingTimes.fromEpochMillis(peak.getEnd()).toString());
+            }
+            return map;
+        }
+    }
+
+    /**
+     * One line of a multi-item request: item id, display name and quantity
+     */
+    public static class ItemDemand {
+        private final String itemId;
+        private final String itemName;
+        private final int quantity;
+
+        public ItemDemand(String itemId, String itemName, int quantity) {
+            this.itemId = itemId;
+            this.itemName = itemName;
+            this.quantity = quantity;
+        }
+
+        public String getItemId() {
+            return itemId;
+        }
+
+        public String getItemName() {
+            return itemName;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+    }
+
+    /**
+     * Availability of a single line in a batch check
+     */
+    public static class LineResult {
+        private final ItemDemand demand;
+        private final AvailabilityResult result;
+
+        public LineResult(ItemDemand demand, AvailabilityResult result) {
+            this.demand = demand;
+            this.result = result;
+        }
+
+        public ItemDemand getDemand() {
+            return demand;
+        }
+
+        public AvailabilityResult getResult() {
+            return result;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = result.toMap();
+            map.put("itemId", demand.getItemId());
+            map.put("itemName", demand.getItemName());
+            map.put("requestedQuantity", demand.getQuantity());
+            return map;
+        }
+    }
+
+    /**
+     * Result of a batch check: one entry per line plus the first line that failed
+     */
+    public static class BatchAvailabilityResult {
+        private final List<LineResult> lines;
+        private final String message;
+
+        public BatchAvailabilityResult(List<LineResult> lines) {
+            this(lines, null);
+        }
+
+        private BatchAvailabilityResult(List<LineResult> lines, String message) {
+            this.lines = lines;
+            this.message = message;
+        }
+
+        static BatchAvailabilityResult invalid(String message) {
+            return new BatchAvailabilityResult(new ArrayList<>(), message);
+        }
+
+        public boolean isAvailable() {
+            return message == null && getFirstFailure() == null;
+        }
+
+        public List<LineResult> getLines() {
+            return lines;
+        }
+
+        public LineResult getFirstFailure() {
+            for (LineResult line : lines) {
+                if (!line.getResult().isAvailable()) {
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        public String getMessage() {
+            if (message != null) {
+                return message;
+            }
+            LineResult failure = getFirstFailure();
+            return failure != null ? failure.getResult().getMessage() : "All items are available";
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("available", isAvailable());
+            map.put("message", getMessage());
+            List<Map<String, Object>> lineMaps = new ArrayList<>();
+            for (LineResult line : lines) {
+                lineMaps.add(line.toMap());
+            }
+            map.put("items", lineMaps);
+            LineResult failure = getFirstFailure();
+            if (failure != null) {
+                map.put("firstUnavailableItemId", failure.getDemand().getItemId());
+            }
             return map;
         }
     }
@@ -0,0 +1,170 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.Item;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the whole item catalog, as served by GET /api/items.
+ *
+ * The catalog is read from Firestore on the first request after a change and then
+ * served from memory. Every change bumps a version number: item writes made through
+ * this backend call invalidate() right away, and a snapshot listener on the items
+ * collection catches everything else (quantity increments from approvals and returns,
+ * maintenance, other instances). Quantities include unfolded counter shards, and a
+ * second listener on the shards catches those changes. The version also gives the
+ * catalog its ETag, so a client that already has the current catalog gets a 304
+ * without a read or a body.
+ * Callers get copies of the cached items, so nothing they do changes the catalog.
+ */
+@Component
+public class ItemCatalogCache {
+
+    private final Firestore firestore;
+    private final CounterService counterService;
+    private final QueryListener listener;
+    // Only when some items are sharded (see CounterService)
+    private final QueryListener shardListener;
+    // Distinguishes this process's versions from those of earlier runs or other instances
+    private final String instanceTag = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile Catalog catalog;
+
+    public ItemCatalogCache(CounterService counterService) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.counterService = counterService;
+        this.listener = new QueryListener("Item catalog", firestore.collection("items"),
+                this::onSnapshot, this::invalidate);
+        this.shardListener = counterService.hasShardedItems()
+                ? new QueryListener("Item catalog shard", firestore.collectionGroup(CounterService.SHARDS_COLLECTION),
+                        this::onSnapshot, this::invalidate)
+                : null;
+    }
+
+    @PostConstruct
+    public void startListening() {
+        listener.start();
+        if (shardListener != null) {
+            shardListener.start();
+        }
+    }
+
+    @PreDestroy
+    public void stopListening() {
+        listener.stop();
+        if (shardListener != null) {
+            shardListener.stop();
+        }
+    }
+
+    /**
+     * Current catalog, read from Firestore only if it changed since the last read
+     */
+    public CompletableFuture<Catalog> getCatalog() {
+        Catalog current = catalog;
+        if (current != null && current.getVersion() == version.get()) {
+            return CompletableFuture.completedFuture(current);
+        }
+
+        long loadVersion = version.get();
+        return FirestoreFutures.toCompletable(firestore.collection("items").get())
+                .thenCombine(counterService.getItemShardTotalsAsync(), (snapshot, shardTotals) -> {
+                    Catalog loaded = new Catalog(loadVersion, eTagFor(loadVersion), toItems(snapshot, shardTotals));
+                    // A change that happened during the read leaves the version ahead, so this copy
+                    // is served to this caller only and the next request reads again. Nothing is kept
+                    // while the listener is down, since outside changes would go unnoticed.
+                    if (isListening() && version.get() == loadVersion) {
+                        catalog = loaded;
+                    }
+                    return loaded;
+                });
+    }
+
+    private static List<Item> toItems(QuerySnapshot snapshot, Map<String, Long> shardTotals) {
+        List<Item> items = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+            Item item = doc.toObject(Item.class);
+            // ✅ FIX: Ensure the ID is always set from the document ID
+            if (item.getId() == null || item.getId().isEmpty()) {
+                item.setId(doc.getId());
+            }
+            Long shardTotal = shardTotals.get(doc.getId());
+            if (shardTotal != null && shardTotal != 0) {
+                int quantity = item.getQuantity() != null ? item.getQuantity() : 0;
+                item.setQuantity(quantity + shardTotal.intValue());
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * ETag of the catalog as of now, or null if it has to be read first
+     */
+    public String currentETag() {
+        Catalog current = catalog;
+        return current != null && current.getVersion() == version.get() ? current.getETag() : null;
+    }
+
+    /**
+     * Drop the cached catalog after an item was added, changed or deleted
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+        catalog = null;
+    }
+
+    private boolean isListening() {
+        return listener.isListening() && (shardListener == null || shardListener.isListening());
+    }
+
+    private String eTagFor(long catalogVersion) {
+        return "\"items-" + instanceTag + "-" + catalogVersion + "\"";
+    }
+
+    private void onSnapshot(QuerySnapshot snapshot, boolean initial) {
+        // The initial snapshot also counts, so reads started before the listener was up are not kept
+        if (initial || !snapshot.getDocumentChanges().isEmpty()) {
+            invalidate();
+        }
+    }
+
+    /**
+     * One version of the item catalog
+     */
+    public static class Catalog {
+        private final long version;
+        private final String eTag;
+        private final List<Item> items;
+
+        Catalog(long version, String eTag, List<Item> items) {
+            this.version = version;
+            this.eTag = eTag;
+            this.items = items;
+        }
+
+        public long getVersion() { return version; }
+        public String getETag() { return eTag; }
+
+        /**
+         * Copies of the catalog's items
+         */
+        public List<Item> getItems() {
+            List<Item> copies = new ArrayList<>(items.size());
+            for (Item item : items) {
+                copies.add(new Item(item));
+            }
+            return copies;
+        }
+    }
+}
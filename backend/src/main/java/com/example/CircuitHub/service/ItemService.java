@@ -14,15 +14,18 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Service
 public class ItemService {
 
     private final Firestore firestore;
+    private final ItemCatalogCache catalogCache;
 
-    public ItemService() {
+    public ItemService(ItemCatalogCache catalogCache) {
         this.firestore = FirestoreClient.getFirestore();
+        this.catalogCache = catalogCache;
     }
 
     public Item saveItem(String name, String description, String condition, MultipartFile image, int quantity)
@@ -61,25 +64,26 @@ public class ItemService {
         data.put("createdAt", now);  // Store as Timestamp in Firestore
         data.put("updatedAt", now);  // Store as Timestamp in Firestore
         data.put("quantity", quantity);
+        data.put("totalQuantity", quantity);
 
         firestore.collection("items").document(itemId).set(data).get();
+        catalogCache.invalidate();
 
         // Return Item with proper Date objects
-        return new Item(itemId, name, description, condition, "Available", imageUrl, now, now, quantity);
+        Item item = new Item(itemId, name, description, condition, "Available", imageUrl, now, now, quantity);
+        item.setTotalQuantity(quantity);
+        return item;
     }
 
     public List<Item> getAllItems() throws ExecutionException, InterruptedException {
-        List<Item> items = new ArrayList<>();
-        ApiFuture<QuerySnapshot> future = firestore.collection("items").get();
-        for (QueryDocumentSnapshot doc : future.get().getDocuments()) {
-            Item item = doc.toObject(Item.class);
-            // ✅ FIX: Ensure the ID is always set from the document ID
-            if (item.getId() == null || item.getId().isEmpty()) {
-                item.setId(doc.getId());
-            }
-            items.add(item);
-        }
-        return items;
+        return getAllItemsAsync().get();
+    }
+
+    /**
+     * All items, from the catalog cache (copies, safe to change)
+     */
+    public CompletableFuture<List<Item>> getAllItemsAsync() {
+        return catalogCache.getCatalog().thenApply(ItemCatalogCache.Catalog::getItems);
     }
 
     public Item getItemById(String id) throws ExecutionException, InterruptedException {
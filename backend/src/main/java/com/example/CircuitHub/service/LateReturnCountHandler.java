@@ -0,0 +1,46 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.RequestEvent;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts a late return against the borrower when a "returned" event is late
+ */
+@Component
+public class LateReturnCountHandler implements RequestEventHandler {
+
+    private final Firestore firestore;
+    private final CounterService counterService;
+
+    public LateReturnCountHandler(CounterService counterService) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.counterService = counterService;
+    }
+
+    @Override
+    public String getName() {
+        return "lateReturnCount";
+    }
+
+    @Override
+    public void handle(RequestEvent event) throws Exception {
+        if (!"returned".equals(event.getType()) || !Boolean.TRUE.equals(event.getIsLate())) {
+            return;
+        }
+        String userId = event.getBorrowerId();
+        if (userId == null || userId.isEmpty()) {
+            return;
+        }
+
+        // Atomic increment - concurrent late returns for the same user are all counted
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("lastLateReturnDate", LocalDateTime.now().toString());
+        counterService.increment(firestore.collection("users").document(userId), "lateReturnCount", 1, updates);
+    }
+}
@@ -16,9 +16,11 @@ import java.util.concurrent.ExecutionException;
 public class MaintenanceService {
 
     private final Firestore firestore;
+    private final CounterService counterService;
 
-    public MaintenanceService() {
+    public MaintenanceService(CounterService counterService) {
         this.firestore = FirestoreClient.getFirestore();
+        this.counterService = counterService;
     }
 
     public Maintenance requestMaintenance(Maintenance maintenance) {
@@ -81,8 +83,7 @@ public class MaintenanceService {
 
             DocumentSnapshot itemDoc = itemQuery.getDocuments().get(0);
             String itemId = itemDoc.getId();
-            Long quantity = itemDoc.getLong("quantity");
-            if (quantity == null) quantity = 0L;
+            long quantity = counterService.getItemQuantity(itemId);  // Includes unfolded shard updates
 
             // ✅ SAFETY CHECK
             if ("In Progress".equals(status) && quantity <= 0) {
@@ -90,10 +91,11 @@ public class MaintenanceService {
             }
 
             // ✅ Update item status and quantity
+            boolean hasTotal = itemDoc.getLong("totalQuantity") != null;
             if ("In Progress".equals(status)) {
-                updateItemStatus(itemId, "Maintenance", -1);
+                updateItemStatus(itemId, "Maintenance", -1, hasTotal);
             } else if ("Completed".equals(status)) {
-                updateItemStatus(itemId, "Available", 1);
+                updateItemStatus(itemId, "Available", 1, hasTotal);
             }
 
             Map<String, Object> updates = new HashMap<>();
@@ -110,26 +112,23 @@ public class MaintenanceService {
         }
     }
 
-    private void updateItemStatus(String itemId, String status, int quantityChange) throws ExecutionException, InterruptedException {
-        DocumentReference itemRef = firestore.collection("items").document(itemId);
-        DocumentSnapshot document = itemRef.get().get();
-
-        if (document.exists()) {
-            Map<String, Object> updates = new HashMap<>();
-            Long currentQty = document.getLong("quantity");
-            if (currentQty == null) currentQty = 0L;
-
-            updates.put("status", status);
-            updates.put("quantity", currentQty + quantityChange);
-
-            if ("Maintenance".equals(status)) {
-                updates.put("maintenanceAt", java.time.LocalDateTime.now().toString());
-            } else if ("Available".equals(status)) {
-                updates.put("returnedFromMaintenanceAt", java.time.LocalDateTime.now().toString());
-            }
+    private void updateItemStatus(String itemId, String status, int quantityChange, boolean hasTotal)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("status", status);
+        if (hasTotal) {
+            // Units in maintenance can't be booked either
+            updates.put("totalQuantity", FieldValue.increment(quantityChange));
+        }
 
-            itemRef.update(updates).get();
+        if ("Maintenance".equals(status)) {
+            updates.put("maintenanceAt", java.time.LocalDateTime.now().toString());
+        } else if ("Available".equals(status)) {
+            updates.put("returnedFromMaintenanceAt", java.time.LocalDateTime.now().toString());
         }
+
+        // Status and quantity change in one write; the quantity is an atomic increment
+        counterService.increment(firestore.collection("items").document(itemId), "quantity", quantityChange, updates);
     }
 
     public Optional<Maintenance> getMaintenanceById(String maintenanceId) throws ExecutionException, InterruptedException {
@@ -0,0 +1,281 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tracks approved (borrowed) requests by due time and flags them once they are overdue.
+ *
+ * A snapshot listener on status == Approved feeds a min-heap ordered by end time;
+ * the first snapshot after the listener is (re)registered rebuilds all of it.
+ * Each check pops only the entries whose end time has passed since the last check,
+ * so its cost follows the number of requests falling due, not the number borrowed.
+ * Changed or closed requests leave their old heap entry behind; it is skipped when
+ * popped because it no longer matches the tracked due time.
+ *
+ * Newly overdue requests get isOverdue/overdueSince written with an update-time
+ * precondition, so a request returned in the meantime (or flagged by another
+ * instance) is left alone.
+ */
+@Component
+public class OverdueMonitor {
+
+    // Rebuild the heap when stale entries outnumber live ones by this factor
+    private static final int HEAP_COMPACT_FACTOR = 2;
+
+    private final Firestore firestore;
+    private final QueryListener listener;
+    private final ZoneId labZone;
+
+    private final PriorityQueue<Due> dueQueue = new PriorityQueue<>(Comparator.comparingLong(Due::getDueAt));
+    // requestId -> approved request that is not due yet
+    private final Map<String, Tracked> pending = new HashMap<>();
+    // requestId -> approved request past its end time
+    private final Map<String, Tracked> overdue = new HashMap<>();
+    // Overdue requests whose flag has not been written yet
+    private final List<Tracked> toFlag = new ArrayList<>();
+
+    private volatile boolean loaded = false;
+
+    public OverdueMonitor(ZoneId labZone) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.labZone = labZone;
+        this.listener = new QueryListener("Overdue",
+                firestore.collection("borrowRequests").whereEqualTo("status", "Approved"),
+                this::onSnapshot, () -> loaded = false);
+    }
+
+    @PostConstruct
+    public void startListening() {
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stopListening() {
+        listener.stop();
+    }
+
+    /**
+     * Move requests that have fallen due into the overdue set and flag them in Firestore
+     */
+    @Scheduled(fixedDelayString = "${circuithub.overdue.check-interval-ms:60000}")
+    public void checkOverdue() {
+        if (!loaded) {
+            return;
+        }
+        List<Tracked> newlyOverdue = popDue(BookingTimes.nowEpochMillis());
+        for (Tracked tracked : newlyOverdue) {
+            flag(tracked);
+        }
+        if (!newlyOverdue.isEmpty()) {
+            System.out.println("⏰ " + newlyOverdue.size() + " borrow request(s) became overdue");
+        }
+    }
+
+    /**
+     * Approved requests past their end time, most overdue first
+     */
+    public CompletableFuture<List<BorrowRequest>> getOverdueRequestsAsync() {
+        long now = BookingTimes.nowEpochMillis();
+        if (!loaded) {
+            return queryOverdueAsync(now);
+        }
+
+        List<Tracked> current;
+        synchronized (this) {
+            // Include requests that fell due since the last check; the next check flags them
+            popDueLocked(now, toFlag);
+            current = new ArrayList<>(overdue.values());
+        }
+        current.sort(Comparator.comparingLong(Tracked::getDueAt));
+
+        List<BorrowRequest> requests = new ArrayList<>(current.size());
+        for (Tracked tracked : current) {
+            requests.add(tracked.getRequest());
+        }
+        return CompletableFuture.completedFuture(requests);
+    }
+
+    private void onSnapshot(QuerySnapshot snapshot, boolean initial) {
+        long now = BookingTimes.nowEpochMillis();
+        synchronized (this) {
+            if (initial) {
+                // Start over from the full result set; anything missed while the listener was down is in it
+                dueQueue.clear();
+                pending.clear();
+                overdue.clear();
+                toFlag.clear();
+                for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                    track(doc, now);
+                }
+            } else {
+                for (DocumentChange change : snapshot.getDocumentChanges()) {
+                    untrack(change.getDocument().getId());
+                    if (change.getType() != DocumentChange.Type.REMOVED) {
+                        track(change.getDocument(), now);
+                    }
+                }
+            }
+            compactHeap();
+        }
+
+        if (!loaded) {
+            loaded = true;
+            System.out.println("✅ Overdue tracking ready: " + pending.size() + " borrowed, "
+                    + overdue.size() + " overdue");
+        }
+    }
+
+    private void track(QueryDocumentSnapshot doc, long now) {
+        BorrowRequest request = doc.toObject(BorrowRequest.class);
+        request.setId(doc.getId());
+        track(request, doc.getUpdateTime(), now);
+    }
+
+    private void track(BorrowRequest request, Timestamp updateTime, long now) {
+        long dueAt;
+        try {
+            dueAt = BookingTimes.endMillis(request, labZone);
+        } catch (DateTimeParseException e) {
+            System.err.println("Failed to parse end date for borrow request " + request.getId() + ": " + e.getMessage());
+            return;
+        }
+
+        Tracked tracked = new Tracked(request, updateTime, dueAt);
+        if (dueAt > now) {
+            pending.put(request.getId(), tracked);
+            dueQueue.add(new Due(request.getId(), dueAt));
+        } else {
+            overdue.put(request.getId(), tracked);
+            if (!Boolean.TRUE.equals(request.getIsOverdue())) {
+                toFlag.add(tracked);
+            }
+        }
+    }
+
+    private void untrack(String requestId) {
+        // Heap entries are dropped lazily when popped
+        pending.remove(requestId);
+        overdue.remove(requestId);
+    }
+
+    private synchronized List<Tracked> popDue(long now) {
+        List<Tracked> result = new ArrayList<>(toFlag);
+        toFlag.clear();
+        popDueLocked(now, result);
+        // A request flagged by the listener may have been replaced since; keep only live entries
+        result.removeIf(tracked -> overdue.get(tracked.getRequest().getId()) != tracked);
+        return result;
+    }
+
+    private void popDueLocked(long now, List<Tracked> newlyOverdue) {
+        while (!dueQueue.isEmpty() && dueQueue.peek().getDueAt() <= now) {
+            Due due = dueQueue.poll();
+            Tracked tracked = pending.get(due.getRequestId());
+            if (tracked == null || tracked.getDueAt() != due.getDueAt()) {
+                continue;  // Closed or rescheduled since this entry was queued
+            }
+            pending.remove(due.getRequestId());
+            overdue.put(due.getRequestId(), tracked);
+            if (!Boolean.TRUE.equals(tracked.getRequest().getIsOverdue())) {
+                newlyOverdue.add(tracked);
+            }
+        }
+    }
+
+    private void compactHeap() {
+        if (dueQueue.size() <= HEAP_COMPACT_FACTOR * pending.size() + 64) {
+            return;
+        }
+        dueQueue.clear();
+        for (Tracked tracked : pending.values()) {
+            dueQueue.add(new Due(tracked.getRequest().getId(), tracked.getDueAt()));
+        }
+    }
+
+    private void flag(Tracked tracked) {
+        String requestId = tracked.getRequest().getId();
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("isOverdue", true);
+        updates.put("overdueSince", BookingTimes.fromEpochMillis(tracked.getDueAt()).toString());
+
+        DocumentReference docRef = firestore.collection("borrowRequests").document(requestId);
+        try {
+            if (tracked.getUpdateTime() != null) {
+                docRef.update(updates, Precondition.updatedAt(tracked.getUpdateTime())).get();
+            } else {
+                docRef.update(updates).get();
+            }
+        } catch (ExecutionException e) {
+            // Changed since it was read (returned, or flagged elsewhere): the listener delivers the new version
+            if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)
+                    && !FirestoreFutures.hasStatus(e, StatusCode.Code.NOT_FOUND)) {
+                System.err.println("❌ Failed to flag overdue request " + requestId + ": " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Used until the listener's first snapshot: query on the normalized end timestamp
+     * (composite index status + endEpochMillis)
+     */
+    private CompletableFuture<List<BorrowRequest>> queryOverdueAsync(long now) {
+        return FirestoreFutures.toCompletable(firestore.collection("borrowRequests")
+                .whereEqualTo("status", "Approved")
+                .whereLessThanOrEqualTo("endEpochMillis", now)
+                .orderBy("endEpochMillis")
+                .get()).thenApply(snapshot -> {
+                    List<BorrowRequest> requests = new ArrayList<>(snapshot.size());
+                    for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                        BorrowRequest request = doc.toObject(BorrowRequest.class);
+                        request.setId(doc.getId());
+                        requests.add(request);
+                    }
+                    return requests;
+                });
+    }
+
+    private static final class Due {
+        private final String requestId;
+        private final long dueAt;
+
+        Due(String requestId, long dueAt) {
+            this.requestId = requestId;
+            this.dueAt = dueAt;
+        }
+
+        String getRequestId() { return requestId; }
+        long getDueAt() { return dueAt; }
+    }
+
+    private static final class Tracked {
+        private final BorrowRequest request;
+        private final Timestamp updateTime;
+        private final long dueAt;
+
+        Tracked(BorrowRequest request, Timestamp updateTime, long dueAt) {
+            this.request = request;
+            this.updateTime = updateTime;
+            this.dueAt = dueAt;
+        }
+
+        BorrowRequest getRequest() { return request; }
+        Timestamp getUpdateTime() { return updateTime; }
+        long getDueAt() { return dueAt; }
+    }
+}
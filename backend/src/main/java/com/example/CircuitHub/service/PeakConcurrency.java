@@ -0,0 +1,82 @@
+package com.example.CircuitHub.service;
+
+import java.util.List;
+
+/**
+ * Sweep-line engine that finds the true peak number of units booked inside a
+ * window, instead of summing every booking that touches the window.
+ *
+ * Each booking contributes a start and an end event. Events are packed into a
+ * single long[] (see BookingEvents) and sorted once, so the
+ * sweep itself is O(k) with no allocation per event; the sort makes it O(k log k).
+ * Intervals are half-open: a booking ending at t frees its units before one
+ * starting at t takes them.
+ */
+public final class PeakConcurrency {
+
+    private PeakConcurrency() {
+    }
+
+    /**
+     * Peak quantity booked inside [windowStart, windowEnd) and the first sub-interval where it occurs
+     */
+    public static Peak compute(List<ActiveBookingIndex.Booking> bookings, long windowStart, long windowEnd) {
+        long windowLimit = windowEnd - windowStart > BookingEvents.MAX_RANGE
+                ? windowStart + BookingEvents.MAX_RANGE : windowEnd;
+        if (bookings.isEmpty() || windowLimit <= windowStart) {
+            return new Peak(0, windowStart, windowEnd);
+        }
+
+        long[] events = BookingEvents.encode(bookings, windowStart, windowLimit);
+
+        int level = 0;
+        int peak = 0;
+        long peakStart = windowStart;
+        long peakEnd = windowEnd;
+        boolean peakOpen = false;
+
+        for (long event : events) {
+            long time = windowStart + BookingEvents.offset(event);
+            int quantity = BookingEvents.quantity(event);
+
+            if (BookingEvents.isStart(event)) {
+                level += quantity;
+                if (level > peak) {
+                    peak = level;
+                    peakStart = time;
+                    peakOpen = true;
+                }
+            } else {
+                if (peakOpen && level == peak && time > peakStart) {
+                    peakEnd = time;
+                    peakOpen = false;
+                }
+                level -= quantity;
+            }
+        }
+
+        if (peakOpen) {
+            peakEnd = windowEnd;
+        }
+        return new Peak(peak, peakStart, peakEnd);
+    }
+
+    /**
+     * Peak booked quantity plus the [start, end) sub-interval (epoch millis) where it first occurs
+     */
+    public static final class Peak {
+        private final int quantity;
+        private final long start;
+        private final long end;
+
+        Peak(int quantity, long start, long end) {
+            this.quantity = quantity;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getQuantity() { return quantity; }
+        public long getStart() { return start; }
+        public long getEnd() { return end; }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.CircuitHub.service;
+
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot listener on a query that re-registers itself after a failure.
+ *
+ * Firestore stops a listener for good once it reports an error, and whatever
+ * changes happen until a new one is registered are never delivered. So the first
+ * snapshot of every registration is passed on as initial: it holds the complete
+ * result set, and views built from the listener should rebuild from it instead
+ * of applying it as changes on top of what they had.
+ */
+final class QueryListener {
+
+    private static final long RETRY_SECONDS = 30;
+
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param initial First snapshot after (re)registering; holds every matching document
+         */
+        void onSnapshot(QuerySnapshot snapshot, boolean initial);
+    }
+
+    private final String name;
+    private final Query query;
+    private final Handler handler;
+    private final Runnable onFailure;
+    private final ScheduledExecutorService retryExecutor;
+
+    private volatile ListenerRegistration registration;
+    private volatile boolean awaitingInitial = true;
+    private volatile boolean listening = false;
+
+    /**
+     * @param name Used in log lines and the retry thread name
+     * @param onFailure Called when the listener fails, before the retry is scheduled
+     */
+    QueryListener(String name, Query query, Handler handler, Runnable onFailure) {
+        this.name = name;
+        this.query = query;
+        this.handler = handler;
+        this.onFailure = onFailure;
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name.toLowerCase().replace(' ', '-') + "-listener");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        awaitingInitial = true;
+        registration = query.addSnapshotListener(this::onEvent);
+        System.out.println("✅ " + name + " listener registered");
+    }
+
+    void stop() {
+        ListenerRegistration current = registration;
+        if (current != null) {
+            current.remove();
+        }
+        retryExecutor.shutdownNow();
+    }
+
+    /**
+     * Whether the current registration has delivered its initial snapshot and not failed since
+     */
+    boolean isListening() {
+        return listening;
+    }
+
+    private void onEvent(QuerySnapshot snapshot, FirestoreException error) {
+        if (error != null) {
+            System.err.println("❌ " + name + " listener failed: " + error.getMessage()
+                    + " - retrying in " + RETRY_SECONDS + "s");
+            listening = false;
+            onFailure.run();
+            try {
+                retryExecutor.schedule(this::start, RETRY_SECONDS, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+            return;
+        }
+        if (snapshot == null) {
+            return;
+        }
+
+        boolean initial = awaitingInitial;
+        handler.onSnapshot(snapshot, initial);
+        if (initial) {
+            awaitingInitial = false;
+            listening = true;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.RequestEvent;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers requestEvents outbox entries to the RequestEventHandler beans.
+ *
+ * Runs on one background thread, woken right after a request write and on a
+ * fixed delay as a fallback. Only pending events carry nextAttemptAt, so each round
+ * reads up to BATCH_SIZE events that are due (nextAttemptAt <= now, oldest first)
+ * and never scans processed ones. The round is claimed by pushing nextAttemptAt
+ * out by a lease, written under update-time preconditions so two instances never
+ * run the same event; an event another instance got to first is skipped on its
+ * own. Handlers run and the outcome of the whole round is recorded in one more
+ * batch, each write conditioned on the lease's update time so an instance whose
+ * lease ran out cannot overwrite the outcome of the instance that took over.
+ * Failed events are retried with exponential backoff and given up after
+ * MAX_ATTEMPTS; if an instance dies holding a lease, the event comes due again
+ * when the lease runs out.
+ */
+@Component
+public class RequestEventDispatcher {
+
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long LEASE_MILLIS = 60_000;
+    private static final long RETRY_BASE_MILLIS = 5_000;
+
+    private final Firestore firestore;
+    private final List<RequestEventHandler> handlers;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "request-event-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    public RequestEventDispatcher(List<RequestEventHandler> handlers) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.handlers = handlers;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Process pending events soon, off the caller's thread
+     */
+    public void wakeUp() {
+        if (scheduled.compareAndSet(false, true)) {
+            worker.execute(this::drain);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${circuithub.outbox.poll-interval-ms:5000}")
+    public void poll() {
+        wakeUp();
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        try {
+            while (dispatchOnce() == BATCH_SIZE) {
+                // Full round: more events may be waiting
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Request event dispatch failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Number of events read in this round, or 0 if none of them could be claimed
+     */
+    private int dispatchOnce() throws ExecutionException, InterruptedException {
+        long now = System.currentTimeMillis();
+        List<QueryDocumentSnapshot> documents = firestore.collection(RequestEventOutbox.COLLECTION)
+                .whereLessThanOrEqualTo("nextAttemptAt", new Date(now))
+                .orderBy("nextAttemptAt")
+                .limit(BATCH_SIZE)
+                .get().get().getDocuments();
+        if (documents.isEmpty()) {
+            return 0;
+        }
+
+        Map<QueryDocumentSnapshot, Timestamp> claimed = claim(documents, new Date(now + LEASE_MILLIS));
+        if (claimed.isEmpty()) {
+            // Another instance holds all of them; reading again would only find the same events
+            return 0;
+        }
+
+        Map<QueryDocumentSnapshot, Map<String, Object>> outcomes = new LinkedHashMap<>();
+        for (QueryDocumentSnapshot doc : claimed.keySet()) {
+            RequestEvent event = doc.toObject(RequestEvent.class);
+            event.setId(doc.getId());
+            outcomes.put(doc, deliver(event));
+        }
+        recordOutcomes(outcomes, claimed);
+        return documents.size();
+    }
+
+    /**
+     * Lease the events in one batch; if another instance changed any of them since
+     * they were read, lease them one at a time so only those are skipped
+     *
+     * @return The events this instance now holds, with the update time of the lease
+     */
+    private Map<QueryDocumentSnapshot, Timestamp> claim(List<QueryDocumentSnapshot> documents, Date leaseUntil)
+            throws ExecutionException, InterruptedException {
+        Map<QueryDocumentSnapshot, Timestamp> claimed = new LinkedHashMap<>();
+        WriteBatch batch = firestore.batch();
+        for (QueryDocumentSnapshot doc : documents) {
+            addLease(batch, doc, leaseUntil);
+        }
+        try {
+            List<WriteResult> results = batch.commit().get();
+            for (int i = 0; i < documents.size(); i++) {
+                claimed.put(documents.get(i), results.get(i).getUpdateTime());
+            }
+            return claimed;
+        } catch (ExecutionException e) {
+            if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)) {
+                throw e;
+            }
+        }
+
+        for (QueryDocumentSnapshot doc : documents) {
+            WriteBatch single = firestore.batch();
+            addLease(single, doc, leaseUntil);
+            try {
+                claimed.put(doc, single.commit().get().get(0).getUpdateTime());
+            } catch (ExecutionException e) {
+                if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)) {
+                    throw e;
+                }
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Write the outcomes in one batch, each only if the event is still as this instance
+     * leased it. If a lease ran out and another instance took an event over, write the
+     * outcomes one at a time so only that event's outcome is dropped
+     */
+    private void recordOutcomes(Map<QueryDocumentSnapshot, Map<String, Object>> outcomes,
+                                Map<QueryDocumentSnapshot, Timestamp> claimed)
+            throws ExecutionException, InterruptedException {
+        WriteBatch batch = firestore.batch();
+        outcomes.forEach((doc, updates) ->
+                batch.update(doc.getReference(), updates, Precondition.updatedAt(claimed.get(doc))));
+        try {
+            batch.commit().get();
+            return;
+        } catch (ExecutionException e) {
+            if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)) {
+                throw e;
+            }
+        }
+
+        for (Map.Entry<QueryDocumentSnapshot, Map<String, Object>> outcome : outcomes.entrySet()) {
+            QueryDocumentSnapshot doc = outcome.getKey();
+            WriteBatch single = firestore.batch();
+            single.update(doc.getReference(), outcome.getValue(), Precondition.updatedAt(claimed.get(doc)));
+            try {
+                single.commit().get();
+            } catch (ExecutionException e) {
+                if (!FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)) {
+                    throw e;
+                }
+                System.err.println("⚠️ Lease on event " + doc.getId()
+                        + " ran out before its outcome was recorded; the new holder records it");
+            }
+        }
+    }
+
+    private void addLease(WriteBatch batch, QueryDocumentSnapshot doc, Date leaseUntil) {
+        batch.update(doc.getReference(), Map.of("nextAttemptAt", leaseUntil),
+                Precondition.updatedAt(doc.getUpdateTime()));
+    }
+
+    /**
+     * Run every handler that has not handled the event yet
+     *
+     * @return The updates recording the outcome on the event
+     */
+    private Map<String, Object> deliver(RequestEvent event) {
+        Set<String> handled = new LinkedHashSet<>();
+        if (event.getHandledBy() != null) {
+            handled.addAll(event.getHandledBy());
+        }
+
+        String error = null;
+        for (RequestEventHandler handler : handlers) {
+            if (handled.contains(handler.getName())) {
+                continue;
+            }
+            try {
+                handler.handle(event);
+                handled.add(handler.getName());
+            } catch (Exception e) {
+                error = handler.getName() + ": " + e.getMessage();
+                System.err.println("⚠️ Handler " + handler.getName() + " failed for event " + event.getId()
+                        + " (" + event.getType() + " " + event.getRequestId() + "): " + e.getMessage());
+            }
+        }
+
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("handledBy", new ArrayList<>(handled));
+        if (error == null) {
+            // Without nextAttemptAt the event drops out of the dispatch query
+            updates.put("nextAttemptAt", FieldValue.delete());
+            updates.put("processed", true);
+            updates.put("processedAt", new Date());
+        } else {
+            int attempts = (event.getAttempts() != null ? event.getAttempts() : 0) + 1;
+            updates.put("attempts", attempts);
+            updates.put("lastError", error);
+            if (attempts >= MAX_ATTEMPTS) {
+                // Give up so the event stops being read; it stays visible as failed
+                updates.put("nextAttemptAt", FieldValue.delete());
+                updates.put("processed", true);
+                updates.put("failed", true);
+            } else {
+                updates.put("nextAttemptAt", new Date(System.currentTimeMillis() + (RETRY_BASE_MILLIS << (attempts - 1))));
+            }
+        }
+        return updates;
+    }
+}
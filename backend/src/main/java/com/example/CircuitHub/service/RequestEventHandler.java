@@ -0,0 +1,20 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.RequestEvent;
+
+/**
+ * Consumer of the request event feed. Every handler bean receives every event,
+ * in occurredAt order, from RequestEventDispatcher.
+ *
+ * A handler that throws is retried later with the same event; handlers that
+ * already succeeded for that event are not called again.
+ */
+public interface RequestEventHandler {
+
+    /**
+     * Stable name recorded on events this handler has processed
+     */
+    String getName();
+
+    void handle(RequestEvent event) throws Exception;
+}
@@ -0,0 +1,96 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds request lifecycle events for the requestEvents outbox.
+ *
+ * Callers write the event in the same batch or transaction as the request change,
+ * so an event exists exactly when its change committed. RequestEventDispatcher
+ * picks them up afterwards.
+ */
+@Component
+public class RequestEventOutbox {
+
+    static final String COLLECTION = "requestEvents";
+    // Processed events can be removed by a Firestore TTL policy on expireAt
+    private static final long RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private final Firestore firestore;
+
+    public RequestEventOutbox() {
+        this.firestore = FirestoreClient.getFirestore();
+    }
+
+    /**
+     * Reference for a new event document (auto ID)
+     */
+    public DocumentReference newEventRef() {
+        return firestore.collection(COLLECTION).document();
+    }
+
+    /**
+     * Event data for a change of the request
+     *
+     * @param type See typeFor; "deleted" for deletions
+     * @param previousStatus Status before the change (null for created)
+     */
+    public Map<String, Object> event(String type, BorrowRequest request, String previousStatus) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("requestId", request.getId());
+        event.put("status", "deleted".equals(type) ? null : request.getStatus());
+        event.put("previousStatus", previousStatus);
+        event.put("borrowerId", request.getBorrowerId());
+        event.put("itemIds", new ArrayList<>(ActiveBookingIndex.itemIdsOf(request)));
+        event.put("isLate", Boolean.TRUE.equals(request.getIsLate()));
+        event.put("occurredAt", FieldValue.serverTimestamp());
+        event.put("expireAt", new Date(System.currentTimeMillis() + RETENTION_MILLIS));
+        event.put("processed", false);
+        event.put("nextAttemptAt", FieldValue.serverTimestamp());  // Due right away; cleared once processed
+        event.put("attempts", 0);
+        return event;
+    }
+
+    /**
+     * Add the event for a change of the request to a batch
+     */
+    public void append(WriteBatch batch, String type, BorrowRequest request, String previousStatus) {
+        batch.create(newEventRef(), event(type, request, previousStatus));
+    }
+
+    /**
+     * Event type for a move to this status
+     */
+    public static String typeFor(String status) {
+        if (status == null) {
+            return "status-changed";
+        }
+        switch (status) {
+            case "Pending":
+            case "Pending-Teacher":
+                return "created";
+            case "Teacher-Approved":
+                return "teacher-approved";
+            case "Approved":
+                return "approved";
+            case "Returned":
+                return "returned";
+            case "Denied":
+            case "Rejected":
+                return "denied";
+            case "Cancelled":
+                return "cancelled";
+            default:
+                return "status-changed";
+        }
+    }
+}
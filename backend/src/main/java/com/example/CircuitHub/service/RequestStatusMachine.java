@@ -0,0 +1,41 @@
+package com.example.CircuitHub.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allowed borrow request status changes.
+ *
+ * Pending-Teacher -> Teacher-Approved -> Approved -> Returned, with Denied and
+ * Cancelled possible from any stage before approval. "Pending" (legacy requests)
+ * is treated like Pending-Teacher. The admin pages can send a request straight to
+ * "Pending-Admin", which then waits for the same decision as Teacher-Approved.
+ * Returned, Denied and Cancelled are final.
+ */
+public final class RequestStatusMachine {
+
+    private static final Map<String, List<String>> TRANSITIONS = Map.of(
+        "Pending", List.of("Teacher-Approved", "Pending-Admin", "Denied", "Cancelled"),
+        "Pending-Teacher", List.of("Teacher-Approved", "Pending-Admin", "Denied", "Cancelled"),
+        "Teacher-Approved", List.of("Approved", "Denied", "Cancelled"),
+        "Pending-Admin", List.of("Approved", "Denied", "Cancelled"),
+        "Approved", List.of("Returned")
+    );
+
+    private RequestStatusMachine() {
+    }
+
+    public static boolean isAllowed(String from, String to) {
+        List<String> targets = from != null ? TRANSITIONS.get(from) : null;
+        return targets != null && targets.contains(to);
+    }
+
+    /**
+     * @throws IllegalStateException if the change is not an allowed edge
+     */
+    public static void check(String from, String to) {
+        if (!isAllowed(from, to)) {
+            throw new IllegalStateException("Cannot change request status from " + from + " to " + to);
+        }
+    }
+}
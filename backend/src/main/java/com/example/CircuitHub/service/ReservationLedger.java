@@ -0,0 +1,355 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-item reservation ledger that makes "check availability, then save" atomic.
+ *
+ * Each item has a reservations/{itemId} document holding an entries map
+ * (requestId -> {start, end, quantity, reservedAt}). A new request is checked against the
+ * ledgers of its items and written together with them in one Firestore
+ * transaction, so two requests for the same item conflict and retry instead of
+ * both passing the check. Requests for different items touch different ledger
+ * documents and commit in parallel. A striped local lock keeps requests on this
+ * instance from retrying against each other.
+ *
+ * Entries are released when the request leaves the active booking index, which
+ * also sees status changes the web app writes to Firestore directly. A periodic
+ * reconcile rebuilds the ledgers from the index for whatever that missed: entries
+ * of requests closed while no instance was running, windows edited outside the
+ * backend, and active requests that never went through reserveAndCreate.
+ */
+@Service
+public class ReservationLedger {
+
+    private static final String COLLECTION = "reservations";
+    private static final int LOCK_STRIPES = 64;
+    // Entries younger than this are kept by the reconcile: the request may not be indexed yet
+    private static final long RECONCILE_GRACE_MILLIS = 5 * 60_000L;
+
+    private final Firestore firestore;
+    private final ActiveBookingIndex bookingIndex;
+    private final CounterService counterService;
+    private final ZoneId labZone;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+
+    public ReservationLedger(ActiveBookingIndex bookingIndex, CounterService counterService, ZoneId labZone) {
+        this.firestore = FirestoreClient.getFirestore();
+        this.bookingIndex = bookingIndex;
+        this.counterService = counterService;
+        this.labZone = labZone;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        bookingIndex.addRemovalListener(this::releaseAsync);
+    }
+
+    /**
+     * Reserve every item line of a new request and create the request document in one transaction
+     *
+     * @throws ReservationConflictException if an item would be oversubscribed
+     */
+    public void reserveAndCreate(DocumentReference requestRef, BorrowRequest request)
+            throws ExecutionException, InterruptedException {
+        reserveAndCreate(requestRef, request, Collections.emptyMap());
+    }
+
+    /**
+     * Same as reserveAndCreate, also creating other documents in the same transaction
+     * (fails with ALREADY_EXISTS if one of them is already there)
+     */
+    public void reserveAndCreate(DocumentReference requestRef, BorrowRequest request,
+                                 Map<DocumentReference, Map<String, Object>> alsoCreate)
+            throws ExecutionException, InterruptedException {
+
+        long start = BookingTimes.startMillis(request, labZone);
+        long end = BookingTimes.endMillis(request, labZone);
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (String itemId : ActiveBookingIndex.itemIdsOf(request)) {
+            quantities.put(itemId, ActiveBookingIndex.requestedQuantity(request, itemId));
+        }
+
+        // Ledgers missing on the server are seeded from the booking index, which also
+        // gives the units lent out for items without a totalQuantity
+        Map<String, Map<String, Object>> seeds = new HashMap<>();
+        Map<String, Integer> lent = new HashMap<>();
+        for (String itemId : quantities.keySet()) {
+            seeds.put(itemId, seedEntries(itemId));
+            lent.put(itemId, bookingIndex.getLentQuantity(itemId));
+        }
+
+        List<ReentrantLock> locks = lockStripes(quantities.keySet());
+        locks.forEach(ReentrantLock::lock);
+        try {
+            firestore.runTransaction(transaction -> {
+                List<String> itemIds = new ArrayList<>(quantities.keySet());
+                DocumentReference[] refs = new DocumentReference[itemIds.size() * 2];
+                for (int i = 0; i < itemIds.size(); i++) {
+                    refs[i] = firestore.collection("items").document(itemIds.get(i));
+                    refs[itemIds.size() + i] = firestore.collection(COLLECTION).document(itemIds.get(i));
+                }
+                List<DocumentSnapshot> snapshots = transaction.getAll(refs).get();
+
+                // All reads (including quantity shards) before the first write
+                int[] capacities = new int[itemIds.size()];
+                for (int i = 0; i < itemIds.size(); i++) {
+                    DocumentSnapshot itemDoc = snapshots.get(i);
+                    if (!itemDoc.exists()) {
+                        throw new ReservationConflictException(itemIds.get(i), "Item not found");
+                    }
+                    Long total = itemDoc.getLong("totalQuantity");
+                    capacities[i] = total != null
+                        ? total.intValue()
+                        : (int) Math.max(0, counterService.getItemQuantity(transaction, itemDoc)) + lent.get(itemIds.get(i));
+                }
+
+                long now = BookingTimes.nowEpochMillis();
+                for (int i = 0; i < itemIds.size(); i++) {
+                    String itemId = itemIds.get(i);
+                    DocumentSnapshot ledgerDoc = snapshots.get(itemIds.size() + i);
+                    int totalQuantity = capacities[i];
+
+                    Map<String, Object> entries = ledgerDoc.exists()
+                        ? entriesOf(ledgerDoc)
+                        : new HashMap<>(seeds.get(itemId));
+                    entries.values().removeIf(entry -> longValue(entry, "end") < now);
+
+                    int booked = PeakConcurrency.compute(toBookings(itemId, entries), start, end).getQuantity();
+                    int requested = quantities.get(itemId);
+                    if (booked + requested > totalQuantity) {
+                        throw new ReservationConflictException(itemId, String.format(
+                            "Insufficient available quantity during the requested period. "
+                            + "Requested: %d, Available: %d, Already booked: %d",
+                            requested, totalQuantity - booked, booked));
+                    }
+
+                    entries.put(request.getId(), entry(start, end, requested, now));
+                    Map<String, Object> ledger = new HashMap<>();
+                    ledger.put("entries", entries);
+                    transaction.set(refs[itemIds.size() + i], ledger);
+                }
+
+                transaction.create(requestRef, request);
+                for (Map.Entry<DocumentReference, Map<String, Object>> other : alsoCreate.entrySet()) {
+                    transaction.create(other.getKey(), other.getValue());
+                }
+                return null;
+            }).get();
+        } catch (ExecutionException e) {
+            // Surface a conflict raised inside the transaction as itself
+            if (e.getCause() instanceof ReservationConflictException) {
+                throw (ReservationConflictException) e.getCause();
+            }
+            throw e;
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    /**
+     * Drop a request's entries from the ledgers of these items, without waiting
+     * (called from the booking index when the request leaves it)
+     */
+    private void releaseAsync(String requestId, Set<String> itemIds) {
+        FirestoreFutures.toCompletable(releaseBatch(requestId, itemIds).commit())
+                .exceptionally(e -> {
+                    // The next reconcile drops the entries instead
+                    System.err.println("❌ Failed to release reservations of request " + requestId + ": "
+                            + FirestoreFutures.rootCause(e).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Bring every ledger back in line with the booking index: add entries of active requests
+     * that are missing, move entries whose window or quantity changed (e.g. dates edited by
+     * the web app directly), and drop entries of requests that are no longer active or expired
+     */
+    @Scheduled(fixedDelayString = "${circuithub.reservations.reconcile-interval-ms:600000}")
+    public void reconcile() {
+        if (!bookingIndex.isLoaded()) {
+            return;
+        }
+        try {
+            long now = BookingTimes.nowEpochMillis();
+            Map<String, Map<String, Object>> changesByItem = new HashMap<>();
+            int changed = 0;
+            for (QueryDocumentSnapshot ledgerDoc : firestore.collection(COLLECTION).get().get().getDocuments()) {
+                String itemId = ledgerDoc.getId();
+                Map<String, Object> changes = reconcileEntries(itemId, entriesOf(ledgerDoc), now);
+                if (!changes.isEmpty()) {
+                    changesByItem.put(itemId, changes);
+                    changed += changes.size();
+                }
+            }
+            if (changesByItem.isEmpty()) {
+                return;
+            }
+
+            // One merge write per ledger; stay under the 500 writes of a batch
+            WriteBatch batch = firestore.batch();
+            int writes = 0;
+            for (Map.Entry<String, Map<String, Object>> item : changesByItem.entrySet()) {
+                Map<String, Object> ledger = new HashMap<>();
+                ledger.put("entries", item.getValue());
+                batch.set(firestore.collection(COLLECTION).document(item.getKey()), ledger, SetOptions.merge());
+                if (++writes >= 400) {
+                    batch.commit().get();
+                    batch = firestore.batch();
+                    writes = 0;
+                }
+            }
+            if (writes > 0) {
+                batch.commit().get();
+            }
+            System.out.println("🧹 Reconciled " + changed + " reservation(s) across " + changesByItem.size() + " item(s)");
+        } catch (ExecutionException e) {
+            System.err.println("❌ Reservation reconcile failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Changes that make one ledger match the item's bookings in the index
+     *
+     * @return requestId -> new entry, or FieldValue.delete() for entries to drop
+     */
+    private Map<String, Object> reconcileEntries(String itemId, Map<String, Object> entries, long now)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> changes = new HashMap<>();
+        Map<String, ActiveBookingIndex.Booking> indexed = new HashMap<>();
+        for (ActiveBookingIndex.Booking booking : bookingIndex.getBookings(itemId)) {
+            if (booking.getEnd() >= now) {
+                indexed.put(booking.getRequestId(), booking);
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            Object current = entry.getValue();
+            ActiveBookingIndex.Booking booking = indexed.remove(entry.getKey());
+            if (booking != null) {
+                if (longValue(current, "start") != booking.getStart()
+                        || longValue(current, "end") != booking.getEnd()
+                        || longValue(current, "quantity") != booking.getQuantity()) {
+                    changes.put(entry.getKey(), entry(booking.getStart(), booking.getEnd(), booking.getQuantity(),
+                            longValue(current, "reservedAt")));
+                }
+                continue;
+            }
+            // Young entries are kept: their request may not have reached the index yet
+            boolean expired = longValue(current, "end") < now;
+            boolean inactive = now - longValue(current, "reservedAt") > RECONCILE_GRACE_MILLIS;
+            if (expired || inactive) {
+                changes.put(entry.getKey(), FieldValue.delete());
+            }
+        }
+
+        // Active requests that never reserved (e.g. written by the web app directly)
+        for (ActiveBookingIndex.Booking booking : indexed.values()) {
+            changes.put(booking.getRequestId(), entry(booking.getStart(), booking.getEnd(), booking.getQuantity(), now));
+        }
+        return changes;
+    }
+
+    /**
+     * Batch deleting a request's entries from the ledgers of these items
+     */
+    private WriteBatch releaseBatch(String requestId, Collection<String> itemIds) {
+        WriteBatch batch = firestore.batch();
+        for (String itemId : itemIds) {
+            Map<String, Object> entries = new HashMap<>();
+            entries.put(requestId, FieldValue.delete());
+            Map<String, Object> ledger = new HashMap<>();
+            ledger.put("entries", entries);
+            batch.set(firestore.collection(COLLECTION).document(itemId), ledger, SetOptions.merge());
+        }
+        return batch;
+    }
+
+    private Map<String, Object> seedEntries(String itemId) throws ExecutionException, InterruptedException {
+        long now = BookingTimes.nowEpochMillis();
+        Map<String, Object> entries = new HashMap<>();
+        for (ActiveBookingIndex.Booking booking : bookingIndex.getBookings(itemId)) {
+            entries.put(booking.getRequestId(),
+                entry(booking.getStart(), booking.getEnd(), booking.getQuantity(), now));
+        }
+        return entries;
+    }
+
+    private List<ReentrantLock> lockStripes(Collection<String> itemIds) {
+        // Lock in stripe order so two requests never wait on each other's stripes
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (String itemId : itemIds) {
+            indexes.add(Math.floorMod(itemId.hashCode(), LOCK_STRIPES));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            locks.add(stripes[index]);
+        }
+        return locks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> entriesOf(DocumentSnapshot ledgerDoc) {
+        Object entries = ledgerDoc.get("entries");
+        return entries instanceof Map ? new HashMap<>((Map<String, Object>) entries) : new HashMap<>();
+    }
+
+    private static List<ActiveBookingIndex.Booking> toBookings(String itemId, Map<String, Object> entries) {
+        List<ActiveBookingIndex.Booking> bookings = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            BorrowRequest reserved = new BorrowRequest();
+            reserved.setId(entry.getKey());
+            bookings.add(new ActiveBookingIndex.Booking(reserved, itemId,
+                longValue(entry.getValue(), "start"),
+                longValue(entry.getValue(), "end"),
+                (int) longValue(entry.getValue(), "quantity")));
+        }
+        return bookings;
+    }
+
+    private static Map<String, Object> entry(long start, long end, int quantity, long reservedAt) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("start", start);
+        entry.put("end", end);
+        entry.put("quantity", quantity);
+        entry.put("reservedAt", reservedAt);
+        return entry;
+    }
+
+    private static long longValue(Object entry, String field) {
+        if (entry instanceof Map) {
+            Object value = ((Map<?, ?>) entry).get(field);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Thrown when a reservation would take an item over its quantity
+     */
+    public static class ReservationConflictException extends RuntimeException {
+        private final String itemId;
+
+        public ReservationConflictException(String itemId, String message) {
+            super(message);
+            this.itemId = itemId;
+        }
+
+        public String getItemId() {
+            return itemId;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.CircuitHub.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Slot-granular occupancy per item over a rolling horizon.
+ *
+ * Lab periods are booked in fixed steps, so each item gets a SlotOccupancy of
+ * SLOT_MINUTES slots from the start of today (UTC) for HORIZON_DAYS days. A
+ * SlotOccupancy is built from the item's ActiveBookingIndex timeline and reused
+ * until the timeline changes or the day rolls over.
+ */
+@Component
+public class SlotAvailabilityIndex {
+
+    public static final int SLOT_MINUTES = 15;
+    public static final long SLOT_MILLIS = SLOT_MINUTES * 60_000L;
+    public static final int SLOTS_PER_DAY = (int) (BookingTimes.MILLIS_PER_DAY / SLOT_MILLIS);
+    public static final int HORIZON_DAYS = 62;
+
+    private final ActiveBookingIndex bookingIndex;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    public SlotAvailabilityIndex(ActiveBookingIndex bookingIndex) {
+        this.bookingIndex = bookingIndex;
+    }
+
+    /**
+     * Slot occupancy of an item for the current horizon
+     */
+    public SlotOccupancy getOccupancy(String itemId) throws ExecutionException, InterruptedException {
+        ActiveBookingIndex.ItemTimeline timeline = bookingIndex.getTimeline(itemId);
+        long horizonStart = BookingTimes.epochDay(BookingTimes.nowEpochMillis()) * BookingTimes.MILLIS_PER_DAY;
+
+        Entry entry = cache.get(itemId);
+        if (entry != null && entry.timeline == timeline && entry.occupancy.getFirstSlotStart() == horizonStart) {
+            return entry.occupancy;
+        }
+
+        SlotOccupancy occupancy = new SlotOccupancy(
+            timeline.asList(), horizonStart, SLOT_MILLIS, HORIZON_DAYS * SLOTS_PER_DAY
+        );
+        cache.put(itemId, new Entry(timeline, occupancy));
+        return occupancy;
+    }
+
+    private static final class Entry {
+        private final ActiveBookingIndex.ItemTimeline timeline;
+        private final SlotOccupancy occupancy;
+
+        Entry(ActiveBookingIndex.ItemTimeline timeline, SlotOccupancy occupancy) {
+            this.timeline = timeline;
+            this.occupancy = occupancy;
+        }
+    }
+}
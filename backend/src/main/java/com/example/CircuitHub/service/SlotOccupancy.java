@@ -0,0 +1,103 @@
+package com.example.CircuitHub.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Booked quantity of one item per fixed-length slot, with range-max queries.
+ *
+ * Slot counts come from a difference array over the bookings (a booking fills
+ * every slot it touches, so partial slots count as booked) and are stored as
+ * the leaves of an iterative max segment tree in one int[]. Building is
+ * O(slots + bookings); a range-max query is O(log slots) no matter how many
+ * bookings the item has. Instances are immutable.
+ */
+public final class SlotOccupancy {
+
+    private final long firstSlotStart;
+    private final long slotMillis;
+    private final int slots;
+    // tree[slots + i] is slot i; tree[i] is the max of its two children
+    private final int[] tree;
+
+    SlotOccupancy(List<ActiveBookingIndex.Booking> bookings, long firstSlotStart, long slotMillis, int slots) {
+        this.firstSlotStart = firstSlotStart;
+        this.slotMillis = slotMillis;
+        this.slots = slots;
+        this.tree = new int[2 * slots];
+
+        int[] diff = new int[slots + 1];
+        long horizonEnd = firstSlotStart + slots * slotMillis;
+        for (ActiveBookingIndex.Booking booking : bookings) {
+            long start = Math.max(booking.getStart(), firstSlotStart);
+            long end = Math.min(booking.getEnd(), horizonEnd);
+            if (start >= end || booking.getQuantity() <= 0) {
+                continue;
+            }
+            diff[slotOf(start)] += booking.getQuantity();
+            diff[slotCeil(end)] -= booking.getQuantity();
+        }
+
+        int running = 0;
+        for (int i = 0; i < slots; i++) {
+            running += diff[i];
+            tree[slots + i] = running;
+        }
+        for (int i = slots - 1; i > 0; i--) {
+            tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+        }
+    }
+
+    public long getFirstSlotStart() {
+        return firstSlotStart;
+    }
+
+    public long getHorizonEnd() {
+        return firstSlotStart + slots * slotMillis;
+    }
+
+    /**
+     * Whether [start, end) lies inside the slot horizon
+     */
+    public boolean covers(long start, long end) {
+        return start >= firstSlotStart && end <= getHorizonEnd() && start < end;
+    }
+
+    /**
+     * Max booked quantity over the slots touched by [start, end); never lower than the true peak
+     */
+    public int maxBooked(long start, long end) {
+        return maxBookedInSlots(slotOf(start), slotCeil(end));
+    }
+
+    /**
+     * Max booked quantity over slots [fromSlot, toSlot)
+     */
+    public int maxBookedInSlots(int fromSlot, int toSlot) {
+        int result = 0;
+        for (int lo = fromSlot + slots, hi = toSlot + slots; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                result = Math.max(result, tree[lo++]);
+            }
+            if ((hi & 1) == 1) {
+                result = Math.max(result, tree[--hi]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Booked quantity of slots [fromSlot, toSlot)
+     */
+    public int[] bookedSlots(int fromSlot, int toSlot) {
+        return Arrays.copyOfRange(tree, slots + fromSlot, slots + toSlot);
+    }
+
+    public int slotOf(long time) {
+        return (int) Math.floorDiv(time - firstSlotStart, slotMillis);
+    }
+
+    private int slotCeil(long time) {
+        return (int) -Math.floorDiv(firstSlotStart - time, slotMillis);
+    }
+}
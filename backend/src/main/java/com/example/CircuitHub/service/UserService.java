@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Service
@@ -118,14 +119,25 @@ public class UserService {
 
     public Optional<User> getUserByUid(String uid) {
         try {
-            if (uid == null || uid.trim().isEmpty()) {
-                return Optional.empty();
-            }
+            return getUserByUidAsync(uid).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Error retrieving user: interrupted operation", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error retrieving user: execution failed", e.getCause());
+        }
+    }
 
-            DocumentReference docRef = firestore.collection("users").document(uid);
-            ApiFuture<DocumentSnapshot> future = docRef.get();
-            DocumentSnapshot snapshot = future.get();
+    /**
+     * Non-blocking variant of getUserByUid
+     */
+    public CompletableFuture<Optional<User>> getUserByUidAsync(String uid) {
+        if (uid == null || uid.trim().isEmpty()) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
 
+        DocumentReference docRef = firestore.collection("users").document(uid);
+        return FirestoreFutures.toCompletable(docRef.get()).thenApply(snapshot -> {
             if (!snapshot.exists()) {
                 return Optional.empty();
             }
@@ -141,12 +153,7 @@ public class UserService {
             if (user.getLateReturnCount() == null) user.setLateReturnCount(0);
 
             return Optional.of(user);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("Error retrieving user: interrupted operation", e);
-        } catch (ExecutionException e) {
-            throw new RuntimeException("Error retrieving user: execution failed", e);
-        }
+        });
     }
 
     public User updateUserProfile(ProfileUpdateDto dto) throws ExecutionException, InterruptedException {
@@ -215,6 +222,13 @@ public class UserService {
         }
     }
 
+    public CompletableFuture<List<User>> getAllTeachersAsync() {
+        return FirestoreFutures.toCompletable(firestore.collection("users").whereEqualTo("role", "teacher").get())
+                .thenApply(snapshot -> snapshot.getDocuments().stream()
+                        .map(doc -> doc.toObject(User.class))
+                        .collect(Collectors.toList()));
+    }
+
     public List<User> getAllUsers() {
         try {
             ApiFuture<QuerySnapshot> future = firestore.collection("users").get();
@@ -230,6 +244,13 @@ public class UserService {
         }
     }
 
+    public CompletableFuture<List<User>> getAllUsersAsync() {
+        return FirestoreFutures.toCompletable(firestore.collection("users").get())
+                .thenApply(snapshot -> snapshot.getDocuments().stream()
+                        .map(doc -> doc.toObject(User.class))
+                        .collect(Collectors.toList()));
+    }
+
     public String uploadProfileImage(MultipartFile file, String uid) throws IOException, ExecutionException, InterruptedException {
         if (uid == null || uid.trim().isEmpty()) {
             throw new IllegalArgumentException("User ID cannot be null or empty");
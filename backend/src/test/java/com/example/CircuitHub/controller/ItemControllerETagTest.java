@@ -0,0 +1,36 @@
+package com.example.CircuitHub.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ItemControllerETagTest {
+
+    private static final String ETAG = "\"items-abc-7\"";
+
+    @Test
+    void exactTagMatches() {
+        assertTrue(ItemController.eTagMatches("\"items-abc-7\"", ETAG));
+    }
+
+    @Test
+    void weakTagsAndListsMatch() {
+        assertTrue(ItemController.eTagMatches("W/\"items-abc-7\"", ETAG));
+        assertTrue(ItemController.eTagMatches("\"items-abc-6\", W/\"items-abc-7\"", ETAG));
+    }
+
+    @Test
+    void wildcardMatchesAnything() {
+        assertTrue(ItemController.eTagMatches("*", ETAG));
+    }
+
+    @Test
+    void otherOrMissingTagsDoNotMatch() {
+        assertFalse(ItemController.eTagMatches("\"items-abc-6\"", ETAG));
+        assertFalse(ItemController.eTagMatches("\"items-xyz-7\"", ETAG));
+        assertFalse(ItemController.eTagMatches("items-abc-7", ETAG));
+        assertFalse(ItemController.eTagMatches(null, ETAG));
+        assertFalse(ItemController.eTagMatches("  ", ETAG));
+    }
+}
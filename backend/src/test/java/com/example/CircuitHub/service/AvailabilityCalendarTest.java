@@ -0,0 +1,65 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.example.CircuitHub.service.BookingFixtures.booking;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class AvailabilityCalendarTest {
+
+    private static final long DAY = BookingTimes.MILLIS_PER_DAY;
+    private static final long NOON = DAY / 2;
+
+    @Test
+    void bookingCountsOnEveryDayItTouches() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("a", 10 * DAY + NOON, 12 * DAY + NOON, 2),
+            booking("b", 11 * DAY, 11 * DAY + NOON, 1)
+        );
+
+        assertArrayEquals(new int[] {0, 2, 3, 2, 0}, AvailabilityCalendar.bookedPerDay(bookings, 9, 5));
+        assertArrayEquals(new int[] {5, 3, 2, 3, 5}, AvailabilityCalendar.availablePerDay(bookings, 5, 9, 5));
+    }
+
+    @Test
+    void bookingsAreClampedToTheRange() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("long", 0, 100 * DAY, 4),
+            booking("later", 200 * DAY, 201 * DAY, 9)
+        );
+
+        assertArrayEquals(new int[] {4, 4, 4}, AvailabilityCalendar.bookedPerDay(bookings, 50, 3));
+    }
+
+    @Test
+    void noBookingsLeaveTheFullQuantity() {
+        assertArrayEquals(new int[] {3, 3}, AvailabilityCalendar.availablePerDay(List.of(), 3, 0, 2));
+    }
+
+    @Test
+    void bookingsEntirelyOutsideTheRangeDoNotCount() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("before", 2 * DAY + NOON, 3 * DAY + NOON, 5),
+            booking("after", 9 * DAY + NOON, 9 * DAY + NOON + 1, 5)
+        );
+
+        assertArrayEquals(new int[] {0, 0, 0}, AvailabilityCalendar.bookedPerDay(bookings, 5, 3));
+    }
+
+    @Test
+    void overbookedDaysShowNegativeAvailability() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("a", 4 * DAY + NOON, 4 * DAY + NOON + 1, 3),
+            booking("b", 4 * DAY + NOON, 4 * DAY + NOON + 1, 2)
+        );
+
+        assertArrayEquals(new int[] {-1}, AvailabilityCalendar.availablePerDay(bookings, 4, 4, 1));
+    }
+
+    @Test
+    void emptyRangeGivesAnEmptyCalendar() {
+        assertArrayEquals(new int[0], AvailabilityCalendar.bookedPerDay(List.of(booking("a", 0, DAY, 1)), 0, 0));
+    }
+}
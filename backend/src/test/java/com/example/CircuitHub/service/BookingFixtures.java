@@ -0,0 +1,23 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+
+/**
+ * Bookings for the sweep, calendar and index tests; times are plain epoch millis
+ */
+final class BookingFixtures {
+
+    static final String ITEM_ID = "item-1";
+
+    private BookingFixtures() {
+    }
+
+    /**
+     * Booking of ITEM_ID by request id over [start, end)
+     */
+    static ActiveBookingIndex.Booking booking(String id, long start, long end, int quantity) {
+        BorrowRequest request = new BorrowRequest();
+        request.setId(id);
+        return new ActiveBookingIndex.Booking(request, ITEM_ID, start, end, quantity);
+    }
+}
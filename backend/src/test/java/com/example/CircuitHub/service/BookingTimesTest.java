@@ -0,0 +1,69 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookingTimesTest {
+
+    private static final ZoneId LAB_ZONE = ZoneId.of("Asia/Manila");
+
+    private static BorrowRequest legacy(String borrowDate, String startTime, String returnTime) {
+        BorrowRequest request = new BorrowRequest();
+        request.setBorrowDate(borrowDate);
+        request.setStartTime(startTime);
+        request.setReturnTime(returnTime);
+        return request;
+    }
+
+    private static Long epoch(String instant) {
+        return Instant.parse(instant).toEpochMilli();
+    }
+
+    @Test
+    void legacyClockTimesAreLabLocal() {
+        BorrowRequest request = legacy("2025-03-10", "3:00 PM", "5:00 pm");
+
+        assertTrue(BookingTimes.normalize(request, LAB_ZONE));
+        assertEquals(epoch("2025-03-10T07:00:00Z"), request.getStartEpochMillis());
+        assertEquals(epoch("2025-03-10T09:00:00Z"), request.getEndEpochMillis());
+    }
+
+    @Test
+    void legacyClockTimesFollowTheGivenZone() {
+        BorrowRequest request = legacy("2025-03-10", "3:00 PM", "5:00 PM");
+
+        BookingTimes.normalize(request, ZoneId.of("UTC"));
+
+        assertEquals(epoch("2025-03-10T15:00:00Z"), request.getStartEpochMillis());
+        assertEquals(epoch("2025-03-10T17:00:00Z"), request.getEndEpochMillis());
+    }
+
+    @Test
+    void legacyBorrowDateWithOffsetUsesTheLabDay() {
+        // Midnight in the lab, sent as the previous day in UTC
+        BorrowRequest request = legacy("2025-03-09T16:00:00.000Z", "9:00 AM", "11:00 AM");
+
+        BookingTimes.normalize(request, LAB_ZONE);
+
+        assertEquals(epoch("2025-03-10T01:00:00Z"), request.getStartEpochMillis());
+    }
+
+    @Test
+    void isoDatesWinOverLegacyFields() {
+        BorrowRequest request = legacy("2025-03-10", "3:00 PM", "5:00 PM");
+        request.setStartDate("2025-03-10T01:00:00Z");
+        request.setEndDate("2025-03-10T02:00:00Z");
+
+        BookingTimes.normalize(request, LAB_ZONE);
+
+        assertEquals(epoch("2025-03-10T01:00:00Z"), request.getStartEpochMillis());
+        assertFalse(BookingTimes.normalize(request, LAB_ZONE));
+    }
+}
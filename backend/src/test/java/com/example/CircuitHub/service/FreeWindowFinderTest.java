@@ -0,0 +1,95 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.CircuitHub.service.BookingFixtures.booking;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FreeWindowFinderTest {
+
+    private static List<Long> starts(List<FreeWindowFinder.Window> windows) {
+        List<Long> starts = new ArrayList<>();
+        for (FreeWindowFinder.Window window : windows) {
+            starts.add(window.getStart());
+        }
+        return starts;
+    }
+
+    @Test
+    void windowsStartOnSlotBoundariesAndFollowEachOther() {
+        List<FreeWindowFinder.Window> windows = FreeWindowFinder.find(List.of(), 1, 1, 30, 10, 3, 100, 3);
+
+        assertEquals(List.of(10L, 40L, 70L), starts(windows));
+        assertEquals(40, windows.get(0).getEnd());
+        assertEquals(100, windows.get(0).getFreeUntil());
+    }
+
+    @Test
+    void durationThatIsNotAMultipleOfTheSlotIsRoundedUpBetweenWindows() {
+        List<FreeWindowFinder.Window> windows = FreeWindowFinder.find(List.of(), 1, 1, 25, 10, 0, 100, 10);
+
+        assertEquals(List.of(0L, 30L, 60L), starts(windows));
+    }
+
+    @Test
+    void windowsSkipRunsWhereTooFewUnitsAreFree() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("a", 20, 50, 2),
+            booking("b", 40, 60, 1)
+        );
+
+        // 3 units, 2 requested: blocked while 2 or more are booked, i.e. [20, 50)
+        List<FreeWindowFinder.Window> windows = FreeWindowFinder.find(bookings, 3, 2, 20, 10, 0, 100, 5);
+
+        assertEquals(List.of(0L, 50L, 70L), starts(windows));
+        assertEquals(20, windows.get(0).getFreeUntil());
+    }
+
+    @Test
+    void runsShorterThanTheDurationYieldNothing() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("a", 15, 30, 1),
+            booking("b", 40, 100, 1)
+        );
+
+        assertTrue(FreeWindowFinder.find(bookings, 1, 1, 20, 10, 0, 100, 5).isEmpty());
+    }
+
+    @Test
+    void limitCapsTheResult() {
+        assertEquals(2, FreeWindowFinder.find(List.of(), 1, 1, 10, 10, 0, 1000, 2).size());
+    }
+
+    @Test
+    void requestLargerThanTheItemFindsNothing() {
+        assertTrue(FreeWindowFinder.find(List.of(), 2, 3, 10, 10, 0, 100, 5).isEmpty());
+    }
+
+    @Test
+    void runStartingMidSlotIsAlignedToTheNextBoundary() {
+        // Booked until 23, so the first free window starts at the 30 boundary
+        List<FreeWindowFinder.Window> windows = FreeWindowFinder.find(
+            List.of(booking("a", 0, 23, 1)), 1, 1, 20, 10, 0, 100, 1);
+
+        assertEquals(List.of(30L), starts(windows));
+        assertEquals(100, windows.get(0).getFreeUntil());
+    }
+
+    @Test
+    void bookingsThatLeaveEnoughUnitsDoNotSplitTheRun() {
+        // 1 of 3 units booked in the middle; 2 requested still fit throughout
+        List<FreeWindowFinder.Window> windows = FreeWindowFinder.find(
+            List.of(booking("a", 40, 60, 1)), 3, 2, 100, 10, 0, 100, 5);
+
+        assertEquals(List.of(0L), starts(windows));
+    }
+
+    @Test
+    void rangeShorterThanTheDurationFindsNothing() {
+        assertTrue(FreeWindowFinder.find(List.of(), 1, 1, 60, 10, 0, 50, 5).isEmpty());
+    }
+}
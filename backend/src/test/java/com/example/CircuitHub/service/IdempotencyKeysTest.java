@@ -0,0 +1,74 @@
+package com.example.CircuitHub.service;
+
+import com.example.CircuitHub.model.BorrowRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class IdempotencyKeysTest {
+
+    @Test
+    void samePayloadGivesSameFingerprint() {
+        BorrowRequest first = request(List.of(line("a", "2"), line("b", "1")));
+        BorrowRequest second = request(List.of(line("a", "2"), line("b", "1")));
+        second.setReason("Fields outside the payload don't count");
+
+        assertEquals(IdempotencyKeys.fingerprint(first), IdempotencyKeys.fingerprint(second));
+    }
+
+    @Test
+    void itemOrderDoesNotMatter() {
+        BorrowRequest first = request(List.of(line("a", "2"), line("b", "1")));
+        BorrowRequest second = request(List.of(line("b", "1"), line("a", "2")));
+
+        assertEquals(IdempotencyKeys.fingerprint(first), IdempotencyKeys.fingerprint(second));
+    }
+
+    @Test
+    void differentQuantityChangesFingerprint() {
+        BorrowRequest first = request(List.of(line("a", "2")));
+        BorrowRequest second = request(List.of(line("a", "3")));
+
+        assertNotEquals(IdempotencyKeys.fingerprint(first), IdempotencyKeys.fingerprint(second));
+    }
+
+    @Test
+    void differentTimesOrBorrowerChangeFingerprint() {
+        String original = IdempotencyKeys.fingerprint(request(List.of(line("a", "1"))));
+
+        BorrowRequest laterEnd = request(List.of(line("a", "1")));
+        laterEnd.setEndDate("2025-03-01T12:00:00");
+        BorrowRequest otherBorrower = request(List.of(line("a", "1")));
+        otherBorrower.setBorrowerId("someone-else");
+
+        assertNotEquals(original, IdempotencyKeys.fingerprint(laterEnd));
+        assertNotEquals(original, IdempotencyKeys.fingerprint(otherBorrower));
+    }
+
+    @Test
+    void legacySingleItemMatchesOneLineRequest() {
+        BorrowRequest legacy = request(null);
+        legacy.setItemId("a");
+        legacy.setRequestedQuantity(2);
+
+        assertEquals(IdempotencyKeys.fingerprint(request(List.of(line("a", "2")))),
+                IdempotencyKeys.fingerprint(legacy));
+    }
+
+    private static BorrowRequest request(List<Map<String, String>> items) {
+        BorrowRequest request = new BorrowRequest();
+        request.setBorrowerId("student-1");
+        request.setStartDate("2025-03-01T09:00:00");
+        request.setEndDate("2025-03-01T11:00:00");
+        request.setItems(items);
+        return request;
+    }
+
+    private static Map<String, String> line(String id, String quantity) {
+        return Map.of("id", id, "quantity", quantity);
+    }
+}
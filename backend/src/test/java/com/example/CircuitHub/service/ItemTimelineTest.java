@@ -0,0 +1,103 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.CircuitHub.service.BookingFixtures.booking;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ItemTimelineTest {
+
+    private static List<String> overlapping(ActiveBookingIndex.ItemTimeline timeline, long start, long end,
+                                            String excludeRequestId) {
+        List<ActiveBookingIndex.Booking> out = new ArrayList<>();
+        timeline.collectOverlapping(start, end, excludeRequestId, out);
+        List<String> ids = new ArrayList<>();
+        for (ActiveBookingIndex.Booking booking : out) {
+            ids.add(booking.getRequestId());
+        }
+        return ids;
+    }
+
+    @Test
+    void ofSortsBookingsByStart() {
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.of(List.of(
+            booking("c", 30, 40, 1),
+            booking("a", 0, 10, 1),
+            booking("b", 20, 25, 1)
+        ));
+
+        assertEquals(List.of("a", "b", "c"), overlapping(timeline, 0, 100, null));
+    }
+
+    @Test
+    void overlapExcludesTouchingBookings() {
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.of(List.of(
+            booking("early", 0, 10, 1),
+            booking("long", 5, 100, 1),
+            booking("late", 20, 30, 1)
+        ));
+
+        assertEquals(List.of("long"), overlapping(timeline, 10, 20, null));
+        assertEquals(List.of("early", "long"), overlapping(timeline, 8, 12, null));
+        assertEquals(List.of("early"), overlapping(timeline, 8, 12, "long"));
+    }
+
+    @Test
+    void withReplacesTheRequestsBookingAndKeepsOrder() {
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.EMPTY
+            .with(booking("a", 10, 20, 1))
+            .with(booking("b", 0, 5, 1))
+            .with(booking("a", 30, 40, 2));
+
+        assertEquals(2, timeline.size());
+        assertEquals("b", timeline.asList().get(0).getRequestId());
+        assertEquals(30, timeline.get("a").getStart());
+        assertEquals(List.of(), overlapping(timeline, 10, 20, null));
+    }
+
+    @Test
+    void withoutAnUnknownRequestReturnsTheSameTimeline() {
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.of(List.of(booking("a", 0, 10, 1)));
+
+        assertSame(timeline, timeline.without("missing"));
+        assertEquals(0, timeline.without("a").size());
+    }
+
+    @Test
+    void queryEndingWhereABookingStartsMissesIt() {
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.of(List.of(booking("a", 50, 60, 1)));
+
+        assertEquals(List.of(), overlapping(timeline, 40, 50, null));
+        assertEquals(List.of("a"), overlapping(timeline, 40, 51, null));
+    }
+
+    @Test
+    void longEarlyBookingIsFoundPastManyShortOnes() {
+        // The interval tree has to look into the left subtree because of the long booking's end
+        List<ActiveBookingIndex.Booking> bookings = new ArrayList<>();
+        bookings.add(booking("long", 0, 10_000, 1));
+        for (int i = 1; i <= 64; i++) {
+            bookings.add(booking("short-" + i, i * 100L, i * 100L + 10, 1));
+        }
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.of(bookings);
+
+        assertEquals(List.of("long"), overlapping(timeline, 9_000, 9_050, null));
+        assertEquals(List.of("long", "short-32"), overlapping(timeline, 3_205, 3_250, null));
+    }
+
+    @Test
+    void withPlacesEqualStartsAfterExistingOnes() {
+        ActiveBookingIndex.ItemTimeline timeline = ActiveBookingIndex.ItemTimeline.EMPTY
+            .with(booking("first", 10, 20, 1))
+            .with(booking("second", 10, 30, 1));
+
+        assertEquals("first", timeline.asList().get(0).getRequestId());
+        assertEquals("second", timeline.asList().get(1).getRequestId());
+        assertNull(timeline.get("third"));
+    }
+}
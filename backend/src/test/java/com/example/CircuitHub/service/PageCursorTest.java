@@ -0,0 +1,34 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PageCursorTest {
+
+    @Test
+    void cursorRoundTrips() {
+        String encoded = new BorrowRequestService.PageCursor(1_700_000_000_123L, "abc|DEF").encode();
+
+        BorrowRequestService.PageCursor decoded = BorrowRequestService.PageCursor.decode(encoded);
+
+        assertEquals(1_700_000_000_123L, decoded.getCreatedAtMillis());
+        assertEquals("abc|DEF", decoded.getDocumentId());
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        String encoded = new BorrowRequestService.PageCursor(0, "??>>~~").encode();
+
+        assertFalse(encoded.contains("+") || encoded.contains("/") || encoded.contains("="));
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> BorrowRequestService.PageCursor.decode("not base64!"));
+        assertThrows(IllegalArgumentException.class, () -> BorrowRequestService.PageCursor.decode("bm8tc2VwYXJhdG9y"));
+        assertThrows(IllegalArgumentException.class, () -> BorrowRequestService.PageCursor.decode("eHl6fGFiYw"));
+    }
+}
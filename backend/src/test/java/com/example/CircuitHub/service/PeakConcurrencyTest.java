@@ -0,0 +1,103 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.example.CircuitHub.service.BookingFixtures.booking;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PeakConcurrencyTest {
+
+    @Test
+    void peakIsTheHighestSimultaneousLevelNotTheSum() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("a", 0, 10, 2),
+            booking("b", 5, 15, 3),
+            booking("c", 12, 20, 1)
+        );
+
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(bookings, 0, 20);
+
+        assertEquals(5, peak.getQuantity());
+        assertEquals(5, peak.getStart());
+        assertEquals(10, peak.getEnd());
+    }
+
+    @Test
+    void bookingEndingWhenAnotherStartsDoesNotOverlapIt() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("a", 0, 10, 2),
+            booking("b", 10, 20, 3)
+        );
+
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(bookings, 0, 20);
+
+        assertEquals(3, peak.getQuantity());
+        assertEquals(10, peak.getStart());
+        assertEquals(20, peak.getEnd());
+    }
+
+    @Test
+    void bookingsAreClampedToTheWindow() {
+        List<ActiveBookingIndex.Booking> bookings = List.of(
+            booking("before", 0, 100, 4),
+            booking("inside", 150, 180, 1),
+            booking("after", 200, 300, 6)
+        );
+
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(bookings, 100, 200);
+
+        assertEquals(1, peak.getQuantity());
+        assertEquals(150, peak.getStart());
+        assertEquals(180, peak.getEnd());
+    }
+
+    @Test
+    void emptyInputOrEmptyWindowHasNoPeak() {
+        assertEquals(0, PeakConcurrency.compute(List.of(), 0, 100).getQuantity());
+        assertEquals(0, PeakConcurrency.compute(List.of(booking("a", 0, 100, 3)), 50, 50).getQuantity());
+    }
+
+    @Test
+    void firstOfTwoEqualPeaksIsReported() {
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(List.of(
+            booking("later", 20, 30, 2),
+            booking("earlier", 0, 10, 2)
+        ), 0, 40);
+
+        assertEquals(2, peak.getQuantity());
+        assertEquals(0, peak.getStart());
+        assertEquals(10, peak.getEnd());
+    }
+
+    @Test
+    void peakStillRunningAtTheWindowEndEndsThere() {
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(List.of(booking("a", 30, 500, 3)), 0, 100);
+
+        assertEquals(30, peak.getStart());
+        assertEquals(100, peak.getEnd());
+    }
+
+    @Test
+    void zeroQuantityBookingsAreIgnored() {
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(List.of(
+            booking("empty", 0, 100, 0),
+            booking("a", 40, 60, 1)
+        ), 0, 100);
+
+        assertEquals(1, peak.getQuantity());
+        assertEquals(40, peak.getStart());
+    }
+
+    @Test
+    void windowBeyondTheEncodableRangeIsCutNotOverflowed() {
+        long start = 1_000;
+        PeakConcurrency.Peak peak = PeakConcurrency.compute(
+            List.of(booking("a", start, start + 10, 2)), start, Long.MAX_VALUE);
+
+        assertEquals(2, peak.getQuantity());
+        assertEquals(start, peak.getStart());
+        assertEquals(start + 10, peak.getEnd());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestStatusMachineTest {
+
+    @Test
+    void normalFlowIsAllowed() {
+        assertTrue(RequestStatusMachine.isAllowed("Pending-Teacher", "Teacher-Approved"));
+        assertTrue(RequestStatusMachine.isAllowed("Teacher-Approved", "Approved"));
+        assertTrue(RequestStatusMachine.isAllowed("Approved", "Returned"));
+    }
+
+    @Test
+    void pendingRequestsCanBeSentToAdminReview() {
+        assertTrue(RequestStatusMachine.isAllowed("Pending", "Pending-Admin"));
+        assertTrue(RequestStatusMachine.isAllowed("Pending-Teacher", "Pending-Admin"));
+        assertTrue(RequestStatusMachine.isAllowed("Pending-Admin", "Approved"));
+        assertFalse(RequestStatusMachine.isAllowed("Approved", "Pending-Admin"));
+    }
+
+    @Test
+    void requestsCanBeDeniedOrCancelledOnlyBeforeApproval() {
+        for (String status : new String[] {"Pending", "Pending-Teacher", "Teacher-Approved", "Pending-Admin"}) {
+            assertTrue(RequestStatusMachine.isAllowed(status, "Denied"), status);
+            assertTrue(RequestStatusMachine.isAllowed(status, "Cancelled"), status);
+        }
+        assertFalse(RequestStatusMachine.isAllowed("Approved", "Cancelled"));
+        assertFalse(RequestStatusMachine.isAllowed("Approved", "Denied"));
+    }
+
+    @Test
+    void finalStatusesHaveNoWayOut() {
+        for (String status : new String[] {"Returned", "Denied", "Cancelled"}) {
+            assertFalse(RequestStatusMachine.isAllowed(status, "Approved"), status);
+            assertFalse(RequestStatusMachine.isAllowed(status, "Pending"), status);
+        }
+        assertFalse(RequestStatusMachine.isAllowed(null, "Approved"));
+    }
+
+    @Test
+    void skippingTheTeacherStageIsRejected() {
+        assertFalse(RequestStatusMachine.isAllowed("Pending-Teacher", "Approved"));
+        assertThrows(IllegalStateException.class, () -> RequestStatusMachine.check("Pending-Teacher", "Approved"));
+    }
+
+    @Test
+    void everyPendingStatusIsActive() {
+        for (String status : new String[] {"Pending", "Pending-Teacher", "Teacher-Approved", "Pending-Admin", "Approved"}) {
+            assertTrue(ActiveBookingIndex.ACTIVE_STATUSES.contains(status), status);
+        }
+    }
+}
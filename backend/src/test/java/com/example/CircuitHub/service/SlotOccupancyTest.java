@@ -0,0 +1,95 @@
+package com.example.CircuitHub.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.CircuitHub.service.BookingFixtures.booking;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlotOccupancyTest {
+
+    @Test
+    void partialSlotsCountAsBooked() {
+        SlotOccupancy occupancy = new SlotOccupancy(List.of(
+            booking("a", 105, 125, 2),
+            booking("b", 120, 140, 1)
+        ), 100, 10, 5);
+
+        assertArrayEquals(new int[] {2, 2, 3, 1, 0}, occupancy.bookedSlots(0, 5));
+    }
+
+    @Test
+    void maxBookedIsTheHighestSlotInTheRange() {
+        SlotOccupancy occupancy = new SlotOccupancy(List.of(
+            booking("a", 0, 30, 1),
+            booking("b", 10, 20, 4),
+            booking("c", 50, 80, 2)
+        ), 0, 10, 8);
+
+        assertEquals(5, occupancy.maxBooked(0, 80));
+        assertEquals(2, occupancy.maxBooked(30, 80));
+        assertEquals(0, occupancy.maxBooked(30, 50));
+        assertEquals(1, occupancy.maxBookedInSlots(2, 3));
+    }
+
+    @Test
+    void bookingsOutsideTheHorizonAreClamped() {
+        SlotOccupancy occupancy = new SlotOccupancy(List.of(
+            booking("before", 0, 110, 3),
+            booking("after", 130, 500, 1)
+        ), 100, 10, 4);
+
+        assertArrayEquals(new int[] {3, 0, 0, 1}, occupancy.bookedSlots(0, 4));
+        assertEquals(140, occupancy.getHorizonEnd());
+    }
+
+    @Test
+    void coversOnlyNonEmptyRangesInsideTheHorizon() {
+        SlotOccupancy occupancy = new SlotOccupancy(List.of(), 100, 10, 4);
+
+        assertTrue(occupancy.covers(100, 140));
+        assertFalse(occupancy.covers(95, 120));
+        assertFalse(occupancy.covers(120, 150));
+        assertFalse(occupancy.covers(120, 120));
+    }
+
+    @Test
+    void bookingOnSlotBoundariesFillsOnlyItsSlots() {
+        SlotOccupancy occupancy = new SlotOccupancy(List.of(booking("a", 10, 30, 1)), 0, 10, 4);
+
+        assertArrayEquals(new int[] {0, 1, 1, 0}, occupancy.bookedSlots(0, 4));
+    }
+
+    @Test
+    void zeroQuantityAndEmptyBookingsAreIgnored() {
+        SlotOccupancy occupancy = new SlotOccupancy(List.of(
+            booking("none", 0, 40, 0),
+            booking("empty", 20, 20, 3)
+        ), 0, 10, 4);
+
+        assertEquals(0, occupancy.maxBookedInSlots(0, 4));
+    }
+
+    @Test
+    void rangeMaxIsRightForEverySubrangeOfAnOddSizedTree() {
+        int[] expected = {1, 0, 3, 2, 0, 4, 1};
+        List<ActiveBookingIndex.Booking> bookings = new ArrayList<>();
+        for (int slot = 0; slot < expected.length; slot++) {
+            bookings.add(booking("s" + slot, slot * 10L, slot * 10L + 10, expected[slot]));
+        }
+        SlotOccupancy occupancy = new SlotOccupancy(bookings, 0, 10, expected.length);
+
+        for (int from = 0; from < expected.length; from++) {
+            int max = 0;
+            for (int to = from + 1; to <= expected.length; to++) {
+                max = Math.max(max, expected[to - 1]);
+                assertEquals(max, occupancy.maxBookedInSlots(from, to), "slots " + from + ".." + to);
+            }
+        }
+    }
+}
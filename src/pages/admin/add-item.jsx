@@ -1,7 +1,5 @@
 import React, { useState } from "react";
-import { db, storage } from "../../firebaseconfig";
-import { collection, addDoc } from "firebase/firestore";
-import { ref, uploadBytes, getDownloadURL } from "firebase/storage";
+import { api } from "../../services/api";
 import "../../components/css/admin/add-item.css";
 
 const AddItem = ({ closeModal }) => {
@@ -30,23 +28,24 @@ const AddItem = ({ closeModal }) => {
     setLoading(true);
 
     try {
-      let imageUrl = "";
+      // The backend stores the image and sets quantity and totalQuantity together
       if (itemImage) {
-        const imageRef = ref(storage, `items/${Date.now()}-${itemImage.name}`);
-        await uploadBytes(imageRef, itemImage);
-        imageUrl = await getDownloadURL(imageRef);
+        const formData = new FormData();
+        formData.append("name", itemName);
+        formData.append("description", itemDescription);
+        formData.append("condition", itemCondition);
+        formData.append("quantity", itemQuantity);
+        formData.append("image", itemImage);
+        await api.items.createWithImage(formData);
+      } else {
+        await api.items.create({
+          name: itemName,
+          description: itemDescription,
+          condition: itemCondition,
+          quantity: String(itemQuantity),
+        });
       }
 
-      await addDoc(collection(db, "items"), {
-        name: itemName,
-        description: itemDescription,
-        condition: itemCondition,
-        imagePath: imageUrl,
-        status: "Available",
-        quantity: itemQuantity,
-        createdAt: new Date(),
-      });
-
       closeModal();
     } catch (err) {
       console.error("Error adding item:", err);
@@ -1,7 +1,8 @@
 import React, { useEffect, useState } from "react";
-import { doc, getDoc, updateDoc, serverTimestamp } from "firebase/firestore";
+import { doc, getDoc } from "firebase/firestore";
 import { ref, uploadBytes, getDownloadURL } from "firebase/storage";
 import { db, storage } from "../../firebaseconfig";
+import { api } from "../../services/api";
 import "../../components/css/admin/edit-item.css";
 
 const AdminEditItem = ({ id, closeModal }) => {
@@ -46,7 +47,6 @@ const AdminEditItem = ({ id, closeModal }) => {
   const handleSubmit = async (e) => {
     e.preventDefault();
     try {
-      const docRef = doc(db, "items", id);
       let imageUrl = existingImageUrl;
 
       if (itemImage) {
@@ -55,14 +55,14 @@ const AdminEditItem = ({ id, closeModal }) => {
         imageUrl = await getDownloadURL(imageRef);
       }
 
-      await updateDoc(docRef, {
+      // Through the backend, so totalQuantity follows the quantity edit
+      await api.items.update(id, {
         name: itemName,
         description: itemDescription,
         condition: itemCondition,
         status: itemStatus,
-        quantity: itemQuantity,
+        quantity: String(itemQuantity),
         imagePath: imageUrl,
-        updatedAt: serverTimestamp(),
       });
 
       closeModal(); // Close on submit